@@ -0,0 +1,34 @@
+package rs.ac.bg.etf.pp1;
+
+/**
+ * Number of MicroJava VM instructions executed per array access, with the array guards called as functions
+ * and generated inline.
+ * <p>
+ * This is not a JMH benchmark: the counts are exact, so the programs are run only once (see 'VmInstructionCounter').
+ * Two programs with 'ACCESS_COUNT' and twice as many array accesses are compiled in both modes (both of them call
+ * the same guard functions), and the differences are divided by 'ACCESS_COUNT'. The bounds check elimination is turned off,
+ * so that every access is checked:
+ *     java -cp "benchmark/target/benchmarks.jar:lib/*" rs.ac.bg.etf.pp1.ArrayGuardInstructions
+ */
+public final class ArrayGuardInstructions {
+    /* Class fields */
+    private static final int ACCESS_COUNT = 100;
+
+    private ArrayGuardInstructions() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (boolean inline : new boolean[]{false, true}) {
+            VmInstructionCounter.Result[] results = new VmInstructionCounter.Result[2];
+            for (int i = 0; i < 2; i++) {
+                results[i] = VmInstructionCounter.run(SyntheticProgram.generateArrayAccesses((i + 1) * ACCESS_COUNT),
+                        new CompilerOptions().setEliminateBoundsChecks(false).setInlineArrayGuards(inline));
+            }
+
+            System.out.printf("%-6s guards: %5.1f instructions and %5.1f bytes of code per array access%n",
+                    inline ? "inline" : "call",
+                    (double) (results[1].instructions - results[0].instructions) / ACCESS_COUNT,
+                    (double) (results[1].codeSize - results[0].codeSize) / ACCESS_COUNT);
+        }
+    }
+}
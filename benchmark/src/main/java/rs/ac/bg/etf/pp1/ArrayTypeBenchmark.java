@@ -0,0 +1,79 @@
+package rs.ac.bg.etf.pp1;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import java_cup.runtime.Symbol;
+
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rs.ac.bg.etf.pp1.ast.Program;
+import rs.ac.bg.etf.pp1.util.CommonUtils;
+
+/**
+ * Time of semantic analysis of programs with 10k to 1M global array declarations, followed by 1000 statements
+ * that assign the arrays to each other and search them with 'findAny' and 'findAll'.
+ * <p>
+ * All arrays share two canonical types ('int[]' and 'char[]'), so the declarations allocate no types and the type checks
+ * of the statements are reference comparisons. Run with '-prof gc' to see the allocated bytes per analysis.
+ * The declaration list is left-recursive in the grammar, so the forked JVM gets a bigger thread stack.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xss64m", "-Xmx4g"})
+public class ArrayTypeBenchmark {
+    static {
+        // Loading 'Compiler' configures log4j; the benchmarks measure the compiler, not the appenders
+        try {
+            Class.forName(Compiler.class.getName());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+        Logger.getRootLogger().setLevel(org.apache.log4j.Level.OFF);
+    }
+
+    /**
+     * The syntax tree of the program (analyzed again by every benchmark invocation).
+     */
+    @State(Scope.Benchmark)
+    public static class Input {
+        @Param({"10000", "100000", "1000000"})
+        public int declarationCount;
+
+        Program program;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            MJParser parser = new MJParser(new Yylex(new StringReader(SyntheticProgram.generateArrayDeclarations(declarationCount))));
+            Symbol s = parser.parse();
+            if (parser.errorDetected) throw new IllegalStateException("The array declaration program has syntax errors");
+            program = (Program) s.value;
+        }
+    }
+
+    @Benchmark
+    public boolean semanticAnalysis(Input input) {
+        CompilationContext context = new CompilationContext(new CompilerOptions().setDumpSymbolTable(false));
+        CommonUtils.initSymbolTable(context);
+
+        SemanticAnalyzer semanticAnalyzer = new SemanticAnalyzer(context);
+        input.program.traverseBottomUp(semanticAnalyzer);
+        if (!semanticAnalyzer.semanticAnalysisPassed()) throw new IllegalStateException("Semantic errors: " + context.getDiagnostics());
+
+        return true;
+    }
+}
@@ -0,0 +1,104 @@
+package rs.ac.bg.etf.pp1;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import java_cup.runtime.Symbol;
+
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rs.ac.bg.etf.pp1.ast.Program;
+import rs.ac.bg.etf.pp1.util.AstSnapshot;
+import rs.ac.bg.etf.pp1.util.CommonUtils;
+
+/**
+ * Time to get an analyzed syntax tree, ready for code generation: lexing, parsing and semantic analysis of the source
+ * compared to loading a snapshot of the tree (see 'AstSnapshot').
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xss64m")
+public class AstSnapshotBenchmark {
+    static {
+        // Loading 'Compiler' configures log4j; the benchmarks measure the compiler, not the appenders
+        try {
+            Class.forName(Compiler.class.getName());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+        Logger.getRootLogger().setLevel(org.apache.log4j.Level.OFF);
+    }
+
+    /**
+     * The synthetic program and the snapshot of its analyzed syntax tree.
+     */
+    @State(Scope.Benchmark)
+    public static class Input {
+        @Param({"SMALL", "MEDIUM", "LARGE"})
+        public SyntheticProgram.Size size;
+
+        String source;
+        byte[] snapshot;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            source = SyntheticProgram.generate(size);
+
+            CompilationContext context = newContext();
+            Program program = parse(source);
+            SemanticAnalyzer semanticAnalyzer = new SemanticAnalyzer(context);
+            program.traverseBottomUp(semanticAnalyzer);
+            if (!semanticAnalyzer.semanticAnalysisPassed()) {
+                throw new IllegalStateException("The synthetic program is not semantically correct: " + context.getDiagnostics());
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            AstSnapshot.write(program, semanticAnalyzer.getNumberOfVariables(), context.getLocalVarCounts(), bytes);
+            snapshot = bytes.toByteArray();
+        }
+    }
+
+    @Benchmark
+    public Program parseAndAnalyze(Input input) throws Exception {
+        Program program = parse(input.source);
+        SemanticAnalyzer semanticAnalyzer = new SemanticAnalyzer(newContext());
+        program.traverseBottomUp(semanticAnalyzer);
+        return program;
+    }
+
+    @Benchmark
+    public Program loadSnapshot(Input input) throws Exception {
+        return AstSnapshot.read(new ByteArrayInputStream(input.snapshot)).getProgram();
+    }
+
+    /* Helper methods */
+
+    private static CompilationContext newContext() {
+        CompilationContext context = new CompilationContext(new CompilerOptions().setDumpSymbolTable(false));
+        CommonUtils.initSymbolTable(context);
+        return context;
+    }
+
+    private static Program parse(String source) throws Exception {
+        MJParser parser = new MJParser(new Yylex(new StringReader(source)));
+        Symbol s = parser.parse();
+        if (parser.errorDetected) throw new IllegalStateException("The synthetic program has syntax errors");
+        return (Program) s.value;
+    }
+}
@@ -0,0 +1,210 @@
+package rs.ac.bg.etf.pp1;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import java_cup.runtime.Symbol;
+
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rs.ac.bg.etf.pp1.ast.Program;
+import rs.ac.bg.etf.pp1.ast.Visitor;
+import rs.ac.bg.etf.pp1.util.CommonUtils;
+
+/**
+ * Throughput of every compiler phase on small, medium and large synthetic programs.
+ * <p>
+ * Besides the number of operations per second, every benchmark reports a phase-specific rate through auxiliary
+ * counters: 'tokens' (lexer and end-to-end compilation), 'nodes' (parser and semantic analysis) and 'bytes'
+ * (code generation). The allocation rate is reported by running JMH with the GC profiler ('-prof gc').
+ * <p>
+ * The large program calls the runtime helpers from further than the 16-bit call offsets of the MicroJava VM reach,
+ * so its code generation reports an error and no object file is written; all bytes are still generated (and counted).
+ * Statement lists are left-recursive in the grammar, so the syntax tree of the large program is traversed with
+ * a recursion depth proportional to its statement count; the forked JVM gets a bigger thread stack because of that.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xss64m")
+public class CompilerBenchmark {
+    static {
+        // Loading 'Compiler' configures log4j; the benchmarks measure the compiler, not the appenders
+        try {
+            Class.forName(Compiler.class.getName());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+        Logger.getRootLogger().setLevel(org.apache.log4j.Level.OFF);
+    }
+
+    /**
+     * The synthetic program, together with its token and syntax tree node counts and its analyzed syntax tree.
+     */
+    @State(Scope.Benchmark)
+    public static class Input {
+        @Param({"SMALL", "MEDIUM", "LARGE"})
+        public SyntheticProgram.Size size;
+
+        String source;
+        int tokenCount;
+        int nodeCount;
+        Program program;
+        File objFile;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            source = SyntheticProgram.generate(size);
+            tokenCount = countTokens(source);
+
+            program = parse(source);
+            nodeCount = countNodes(program);
+
+            CompilationContext context = newContext();
+            SemanticAnalyzer semanticAnalyzer = new SemanticAnalyzer(context);
+            program.traverseBottomUp(semanticAnalyzer);
+            if (!semanticAnalyzer.semanticAnalysisPassed()) {
+                throw new IllegalStateException("The synthetic program is not semantically correct: " + context.getDiagnostics());
+            }
+
+            objFile = File.createTempFile("mj-benchmark", ".obj");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            objFile.delete();
+        }
+    }
+
+    /* Auxiliary counters, reported as rates */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Tokens {
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tokens = 0;
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Nodes {
+        public long nodes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            nodes = 0;
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    /* Benchmarks */
+
+    @Benchmark
+    public int lexer(Input input, Tokens counter) throws Exception {
+        int count = countTokens(input.source);
+        counter.tokens += count;
+        return count;
+    }
+
+    @Benchmark
+    public Program parser(Input input, Nodes counter) throws Exception {
+        Program program = parse(input.source);
+        counter.nodes += input.nodeCount;
+        return program;
+    }
+
+    @Benchmark
+    public boolean semanticAnalysis(Input input, Nodes counter) {
+        SemanticAnalyzer semanticAnalyzer = new SemanticAnalyzer(newContext());
+        input.program.traverseBottomUp(semanticAnalyzer);
+        counter.nodes += input.nodeCount;
+        return semanticAnalyzer.semanticAnalysisPassed();
+    }
+
+    @Benchmark
+    public int codeGeneration(Input input, Bytes counter) {
+        CompilationContext context = newContext();
+        input.program.traverseBottomUp(new CodeGenerator(context));
+        counter.bytes += context.getCode().pc;
+        return context.getCode().pc;
+    }
+
+    @Benchmark
+    public boolean compiler(Input input, Tokens counter) {
+        boolean successful = Compiler.compile(new CompilationContext(options()), new StringReader(input.source),
+                "<synthetic>", input.objFile);
+        counter.tokens += input.tokenCount;
+        return successful;
+    }
+
+    /* Helper methods */
+
+    private static CompilerOptions options() {
+        return new CompilerOptions().setDumpSymbolTable(false);
+    }
+
+    private static CompilationContext newContext() {
+        CompilationContext context = new CompilationContext(options());
+        CommonUtils.initSymbolTable(context);
+        return context;
+    }
+
+    private static int countTokens(String source) throws IOException {
+        Yylex lexer = new Yylex(new StringReader(source));
+        int count = 0;
+        while (lexer.next_token().sym != sym.EOF) count++;
+        return count;
+    }
+
+    private static Program parse(String source) throws Exception {
+        MJParser parser = new MJParser(new Yylex(new StringReader(source)));
+        Symbol s = parser.parse();
+        if (parser.errorDetected) throw new IllegalStateException("The synthetic program has syntax errors");
+        return (Program) s.value;
+    }
+
+    /**
+     * Counts the syntax tree nodes: the traversal calls 'visit' exactly once for every node.
+     */
+    private static int countNodes(Program program) {
+        int[] count = new int[1];
+        Visitor counter = (Visitor) Proxy.newProxyInstance(Visitor.class.getClassLoader(), new Class<?>[]{Visitor.class},
+                (proxy, method, args) -> {
+                    count[0]++;
+                    return null;
+                });
+        program.traverseBottomUp(counter);
+        return count[0];
+    }
+}
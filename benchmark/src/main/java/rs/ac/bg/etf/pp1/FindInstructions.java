@@ -0,0 +1,37 @@
+package rs.ac.bg.etf.pp1;
+
+/**
+ * Number of MicroJava VM instructions executed per array element by 'findAny' and 'findAll' on large int and char
+ * arrays, for several unroll factors of their loops.
+ * <p>
+ * Like 'ArrayGuardInstructions', this counts the instructions in the VM trace (see 'VmInstructionCounter'). Every
+ * call is measured on two arrays whose lengths differ by 'LENGTH', and the difference in executed instructions is
+ * divided by it. The arrays are limited by the heap of the VM (100,000 words):
+ *     java -cp "benchmark/target/benchmarks.jar:lib/*" rs.ac.bg.etf.pp1.FindInstructions
+ */
+public final class FindInstructions {
+    /* Class fields */
+    private static final int LENGTH = 45_000;
+    private static final int[] UNROLL_FACTORS = {1, 2, 4, 8};
+
+    private FindInstructions() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (boolean findAll : new boolean[]{false, true}) {
+            for (boolean charElements : new boolean[]{false, true}) {
+                StringBuilder line = new StringBuilder(String.format("%-7s on %-4s arrays:", findAll ? "findAll" : "findAny",
+                        charElements ? "char" : "int"));
+
+                for (int unrollFactor : UNROLL_FACTORS) {
+                    CompilerOptions options = new CompilerOptions().setFindUnrollFactor(unrollFactor);
+                    long shorter = VmInstructionCounter.run(SyntheticProgram.generateFindCall(charElements, findAll, LENGTH), options).instructions;
+                    long longer = VmInstructionCounter.run(SyntheticProgram.generateFindCall(charElements, findAll, 2 * LENGTH), options).instructions;
+
+                    line.append(String.format("  %5.2f (unroll %d)", (double) (longer - shorter) / LENGTH, unrollFactor));
+                }
+                System.out.println(line.append(" instructions per element"));
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package rs.ac.bg.etf.pp1;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Number of MicroJava VM instructions executed by the test programs and the size of their code, with the global
+ * variables accessed directly and promoted to locals (see 'GlobalPromoter').
+ * <p>
+ * Like 'ArrayGuardInstructions', this counts the instructions in the VM trace (see 'VmInstructionCounter'). The programs
+ * are the ones in 'test' (run from the root of the repository, with '5' as the input of 'read'):
+ *     java -cp "benchmark/target/benchmarks.jar:lib/*" rs.ac.bg.etf.pp1.GlobalPromotionInstructions
+ */
+public final class GlobalPromotionInstructions {
+    /* Class fields */
+    private static final String[] PROGRAMS = {"test/program.mj", "test/test301.mj"};
+    private static final String INPUT = "5\n";
+
+    private GlobalPromotionInstructions() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (String path : PROGRAMS) {
+            String program = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+
+            VmInstructionCounter.Result direct = VmInstructionCounter.run(program, new CompilerOptions().setPromoteGlobals(false), INPUT);
+            VmInstructionCounter.Result promoted = VmInstructionCounter.run(program, new CompilerOptions().setPromoteGlobals(true), INPUT);
+
+            System.out.printf("%-16s %5d -> %5d instructions, %4d -> %4d bytes of code%n", path,
+                    direct.instructions, promoted.instructions, direct.codeSize, promoted.codeSize);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package rs.ac.bg.etf.pp1;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import java_cup.runtime.Symbol;
+
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rs.ac.bg.etf.pp1.ast.Program;
+import rs.ac.bg.etf.pp1.util.CommonUtils;
+
+/**
+ * Time of semantic analysis followed by code generation on a short program that calls every runtime helper,
+ * with the helpers copied from the precompiled snapshot and generated instruction by instruction.
+ * <p>
+ * The time is sampled per compilation, so JMH reports its percentiles (p50, p99, ...); the difference between
+ * the two runs is the time the snapshot saves per compilation.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HelperSnapshotBenchmark {
+    static {
+        // Loading 'Compiler' configures log4j; the benchmarks measure the compiler, not the appenders
+        try {
+            Class.forName(Compiler.class.getName());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+        Logger.getRootLogger().setLevel(org.apache.log4j.Level.OFF);
+    }
+
+    /**
+     * The syntax tree of the program (analyzed again by every benchmark invocation).
+     */
+    @State(Scope.Benchmark)
+    public static class Input {
+        @Param({"true", "false"})
+        public boolean precompiledHelpers;
+
+        Program program;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            MJParser parser = new MJParser(new Yylex(new StringReader(SyntheticProgram.generateHelperCalls())));
+            Symbol s = parser.parse();
+            if (parser.errorDetected) throw new IllegalStateException("The helper program has syntax errors");
+            program = (Program) s.value;
+        }
+    }
+
+    @Benchmark
+    public int semanticAnalysisAndCodeGeneration(Input input) {
+        CompilationContext context = new CompilationContext(new CompilerOptions()
+                .setDumpSymbolTable(false).setPrecompiledHelpers(input.precompiledHelpers));
+        CommonUtils.initSymbolTable(context);
+
+        SemanticAnalyzer semanticAnalyzer = new SemanticAnalyzer(context);
+        input.program.traverseBottomUp(semanticAnalyzer);
+        if (!semanticAnalyzer.semanticAnalysisPassed()) throw new IllegalStateException("Semantic errors: " + context.getDiagnostics());
+
+        input.program.traverseBottomUp(new CodeGenerator(context));
+        return context.getCode().pc;
+    }
+}
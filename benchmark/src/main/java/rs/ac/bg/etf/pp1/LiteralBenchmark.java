@@ -0,0 +1,95 @@
+package rs.ac.bg.etf.pp1;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import java_cup.runtime.Symbol;
+
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rs.ac.bg.etf.pp1.ast.Program;
+import rs.ac.bg.etf.pp1.util.CommonUtils;
+
+/**
+ * Time of semantic analysis followed by code generation on a program with 100k integer literals.
+ * <p>
+ * With constant folding, literals are generated as constants directly; without it, every literal occurrence
+ * goes through the literal pool (it used to be inserted into the symbol table).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xss64m")
+public class LiteralBenchmark {
+    static {
+        // Loading 'Compiler' configures log4j; the benchmarks measure the compiler, not the appenders
+        try {
+            Class.forName(Compiler.class.getName());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+        Logger.getRootLogger().setLevel(org.apache.log4j.Level.OFF);
+    }
+
+    private static final int LITERAL_COUNT = 100_000;
+
+    /**
+     * The syntax tree of the program (analyzed again by every benchmark invocation).
+     */
+    @State(Scope.Benchmark)
+    public static class Input {
+        @Param({"true", "false"})
+        public boolean foldConstants;
+
+        Program program;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            MJParser parser = new MJParser(new Yylex(new StringReader(SyntheticProgram.generateLiterals(LITERAL_COUNT))));
+            Symbol s = parser.parse();
+            if (parser.errorDetected) throw new IllegalStateException("The literal program has syntax errors");
+            program = (Program) s.value;
+        }
+    }
+
+    /* Auxiliary counter, reported as a rate */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Literals {
+        public long literals;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            literals = 0;
+        }
+    }
+
+    @Benchmark
+    public int semanticAnalysisAndCodeGeneration(Input input, Literals counter) {
+        CompilationContext context = new CompilationContext(new CompilerOptions()
+                .setDumpSymbolTable(false).setFoldConstants(input.foldConstants));
+        CommonUtils.initSymbolTable(context);
+
+        SemanticAnalyzer semanticAnalyzer = new SemanticAnalyzer(context);
+        input.program.traverseBottomUp(semanticAnalyzer);
+        if (!semanticAnalyzer.semanticAnalysisPassed()) throw new IllegalStateException("Semantic errors: " + context.getDiagnostics());
+
+        input.program.traverseBottomUp(new CodeGenerator(context));
+        counter.literals += LITERAL_COUNT;
+        return context.getCode().pc;
+    }
+}
@@ -0,0 +1,106 @@
+package rs.ac.bg.etf.pp1;
+
+import java.io.StringReader;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import java_cup.runtime.Symbol;
+
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rs.ac.bg.etf.pp1.ast.Program;
+import rs.ac.bg.etf.pp1.util.CommonUtils;
+
+/**
+ * Time of semantic analysis of programs with 1k and 10k methods (20 statements each) on 1 to 8 threads
+ * (see 'SemanticAnalyzer.analyzeInParallel'); 1 thread is the sequential traversal.
+ * <p>
+ * The methods are reported as a rate, so the speedup can be read directly. The global declarations and the
+ * declarations of the methods are analyzed sequentially, which bounds the speedup (Amdahl's law).
+ * The pool is created once per trial, as the compiler would keep it for a whole build.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xss64m", "-Xmx4g"})
+public class ParallelAnalysisBenchmark {
+    static {
+        // Loading 'Compiler' configures log4j; the benchmarks measure the compiler, not the appenders
+        try {
+            Class.forName(Compiler.class.getName());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+        Logger.getRootLogger().setLevel(org.apache.log4j.Level.OFF);
+    }
+
+    /**
+     * The syntax tree of the program (analyzed again by every benchmark invocation) and the pool of the analysis.
+     */
+    @State(Scope.Benchmark)
+    public static class Input {
+        @Param({"1000", "10000"})
+        public int methodCount;
+
+        @Param({"1", "2", "4", "8"})
+        public int threads;
+
+        Program program;
+        ForkJoinPool pool;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            MJParser parser = new MJParser(new Yylex(new StringReader(SyntheticProgram.generateMethods(methodCount, 20))));
+            Symbol s = parser.parse();
+            if (parser.errorDetected) throw new IllegalStateException("The synthetic program has syntax errors");
+            program = (Program) s.value;
+            pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            if (pool != null) pool.shutdown();
+        }
+    }
+
+    /* Auxiliary counter, reported as a rate */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Methods {
+        public long methods;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            methods = 0;
+        }
+    }
+
+    @Benchmark
+    public boolean semanticAnalysis(Input input, Methods counter) {
+        CompilationContext context = new CompilationContext(new CompilerOptions().setDumpSymbolTable(false));
+        CommonUtils.initSymbolTable(context);
+
+        SemanticAnalyzer semanticAnalyzer = new SemanticAnalyzer(context);
+        if (input.pool != null) semanticAnalyzer.analyzeInParallel(input.program, input.pool);
+        else input.program.traverseBottomUp(semanticAnalyzer);
+        if (!semanticAnalyzer.semanticAnalysisPassed()) throw new IllegalStateException("Semantic errors: " + context.getDiagnostics());
+
+        counter.methods += input.methodCount + 1;
+        return true;
+    }
+}
@@ -0,0 +1,103 @@
+package rs.ac.bg.etf.pp1;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rs.ac.bg.etf.pp1.util.MappedSourceReader;
+
+/**
+ * Lexer throughput on a source file read through 'BufferedReader(FileReader)' and through 'MappedSourceReader'.
+ * <p>
+ * The synthetic program is written to a temporary file once per trial, so both benchmarks read it from the page cache.
+ * Besides the number of operations per second, the benchmarks report the number of source bytes read per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SourceInputBenchmark {
+    /**
+     * The synthetic program written to a temporary file.
+     */
+    @State(Scope.Benchmark)
+    public static class Input {
+        @Param({"MEDIUM", "LARGE"})
+        public SyntheticProgram.Size size;
+
+        File sourceFile;
+        long byteCount;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            sourceFile = File.createTempFile("mj-benchmark", ".mj");
+            Files.write(sourceFile.toPath(), SyntheticProgram.generate(size).getBytes(StandardCharsets.UTF_8));
+            byteCount = sourceFile.length();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            sourceFile.delete();
+        }
+    }
+
+    /* Auxiliary counter, reported as a rate */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    /* Benchmarks */
+
+    @Benchmark
+    public int fileReader(Input input, Bytes counter) throws IOException {
+        try (Reader reader = new BufferedReader(new FileReader(input.sourceFile))) {
+            counter.bytes += input.byteCount;
+            return countTokens(reader);
+        }
+    }
+
+    @Benchmark
+    public int mappedReader(Input input, Bytes counter) throws IOException {
+        try (Reader reader = new MappedSourceReader(input.sourceFile)) {
+            counter.bytes += input.byteCount;
+            return countTokens(reader);
+        }
+    }
+
+    /* Helper methods */
+
+    private static int countTokens(Reader reader) throws IOException {
+        Yylex lexer = new Yylex(reader);
+        int count = 0;
+        while (lexer.next_token().sym != sym.EOF) count++;
+        return count;
+    }
+}
@@ -0,0 +1,82 @@
+package rs.ac.bg.etf.pp1;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time of compiling programs with 100 to 10k methods (20 statements each) from a source file, with the complete syntax tree
+ * and with every method analyzed and generated as soon as it is parsed (see 'StreamingParser').
+ * <p>
+ * The streaming compilation needs less memory: only the largest method and the symbol table have to fit into the heap,
+ * which can be checked by running both modes with a small '-Xmx'. Run with '-prof gc' to compare the GC load.
+ * With 1000 and more methods the runtime helpers are called from further than the 16-bit call offsets of the MicroJava VM reach,
+ * so no object file is written for them (see 'CompilerBenchmark').
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xss64m")
+public class StreamingBenchmark {
+    static {
+        // Loading 'Compiler' configures log4j; the benchmarks measure the compiler, not the appenders
+        try {
+            Class.forName(Compiler.class.getName());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+        Logger.getRootLogger().setLevel(org.apache.log4j.Level.OFF);
+    }
+
+    /**
+     * The source file of the program and the object file (not written for the larger programs).
+     */
+    @State(Scope.Benchmark)
+    public static class Input {
+        @Param({"100", "1000", "10000"})
+        public int methodCount;
+
+        @Param({"false", "true"})
+        public boolean streaming;
+
+        File sourceFile;
+        File objFile;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            sourceFile = File.createTempFile("mj-benchmark", ".mj");
+            Files.write(sourceFile.toPath(), SyntheticProgram.generateMethods(methodCount, 20).getBytes(StandardCharsets.UTF_8));
+            objFile = File.createTempFile("mj-benchmark", ".obj");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            sourceFile.delete();
+            objFile.delete();
+        }
+    }
+
+    @Benchmark
+    public CompilationContext compiler(Input input) {
+        CompilationContext context = new CompilationContext(new CompilerOptions().setDumpSymbolTable(false).setStreaming(input.streaming));
+        Compiler.compile(context, input.sourceFile, input.objFile);
+        return context;
+    }
+}
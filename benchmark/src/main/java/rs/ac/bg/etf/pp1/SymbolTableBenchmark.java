@@ -0,0 +1,92 @@
+package rs.ac.bg.etf.pp1;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import java_cup.runtime.Symbol;
+
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rs.ac.bg.etf.pp1.ast.Program;
+import rs.ac.bg.etf.pp1.util.CommonUtils;
+
+/**
+ * Time of semantic analysis of programs with 1k to 1M global declarations, which all go through the symbol table
+ * (a duplicate check and an insertion each), followed by 1000 statements that resolve some of them.
+ * <p>
+ * The declarations are reported as a rate, which stays constant if the symbol table scales linearly.
+ * The declaration list is left-recursive in the grammar, so the forked JVM gets a bigger thread stack.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xss64m", "-Xmx4g"})
+public class SymbolTableBenchmark {
+    static {
+        // Loading 'Compiler' configures log4j; the benchmarks measure the compiler, not the appenders
+        try {
+            Class.forName(Compiler.class.getName());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+        Logger.getRootLogger().setLevel(org.apache.log4j.Level.OFF);
+    }
+
+    /**
+     * The syntax tree of the program (analyzed again by every benchmark invocation).
+     */
+    @State(Scope.Benchmark)
+    public static class Input {
+        @Param({"1000", "10000", "100000", "1000000"})
+        public int declarationCount;
+
+        Program program;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            MJParser parser = new MJParser(new Yylex(new StringReader(SyntheticProgram.generateDeclarations(declarationCount))));
+            Symbol s = parser.parse();
+            if (parser.errorDetected) throw new IllegalStateException("The declaration program has syntax errors");
+            program = (Program) s.value;
+        }
+    }
+
+    /* Auxiliary counter, reported as a rate */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Declarations {
+        public long declarations;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            declarations = 0;
+        }
+    }
+
+    @Benchmark
+    public boolean semanticAnalysis(Input input, Declarations counter) {
+        CompilationContext context = new CompilationContext(new CompilerOptions().setDumpSymbolTable(false));
+        CommonUtils.initSymbolTable(context);
+
+        SemanticAnalyzer semanticAnalyzer = new SemanticAnalyzer(context);
+        input.program.traverseBottomUp(semanticAnalyzer);
+        if (!semanticAnalyzer.semanticAnalysisPassed()) throw new IllegalStateException("Semantic errors: " + context.getDiagnostics());
+
+        counter.declarations += input.declarationCount;
+        return true;
+    }
+}
@@ -0,0 +1,289 @@
+package rs.ac.bg.etf.pp1;
+
+/**
+ * Generates syntactically and semantically correct MicroJava programs of a given size.
+ * <p>
+ * Every program declares a few constants, global variables and arrays, and a 'main' method whose body repeats
+ * the statement kinds used in 'test/test301.mj' (arithmetic, array accesses, increments, blocks, 'print',
+ * 'findAny' and 'findAll') until the requested number of statements is reached.
+ * The output only depends on the statement count, so the benchmark results are comparable between runs.
+ */
+public final class SyntheticProgram {
+    /* Class fields */
+    private static final int GLOBAL_COUNT = 16;
+    private static final int ARRAY_LENGTH = 8;
+
+    /**
+     * Program sizes used by the benchmarks (number of statements in the 'main' method).
+     */
+    public enum Size {
+        SMALL(20),
+        MEDIUM(1_000),
+        LARGE(50_000);
+
+        private final int statementCount;
+
+        Size(int statementCount) {
+            this.statementCount = statementCount;
+        }
+
+        public int getStatementCount() {
+            return statementCount;
+        }
+    }
+
+    private SyntheticProgram() {
+    }
+
+    public static String generate(Size size) {
+        return generate(size.getStatementCount());
+    }
+
+    public static String generate(int statementCount) {
+        StringBuilder sb = new StringBuilder(statementCount * 40 + 512);
+        appendDeclarations(sb, "Synthetic");
+
+        sb.append("{\n");
+        appendMethod(sb, "main", 0, statementCount);
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Generates a program with 'methodCount' methods followed by 'main', each with its own local variables and
+     * 'statementsPerMethod' statements of the same kinds as in 'generate'.
+     */
+    public static String generateMethods(int methodCount, int statementsPerMethod) {
+        StringBuilder sb = new StringBuilder((methodCount + 1) * (statementsPerMethod * 40 + 128) + 512);
+        appendDeclarations(sb, "Methods");
+
+        sb.append("{\n");
+        for (int i = 0; i < methodCount; i++) {
+            appendMethod(sb, "m" + i, i * statementsPerMethod, statementsPerMethod);
+        }
+        appendMethod(sb, "main", 0, statementsPerMethod);
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static void appendDeclarations(StringBuilder sb, String programName) {
+        sb.append("program ").append(programName).append("\n\n");
+        sb.append("\tconst int zero = 0, one = 1, five = 5;\n");
+        sb.append("\tconst char letter = 'x';\n\n");
+        sb.append("\tint array[], ");
+        for (int i = 0; i < GLOBAL_COUNT; i++) {
+            sb.append('g').append(i).append(i + 1 < GLOBAL_COUNT ? ", " : ";\n");
+        }
+        sb.append("\tchar chars[];\n\n");
+    }
+
+    private static void appendMethod(StringBuilder sb, String name, int firstStatement, int statementCount) {
+        sb.append("\tvoid ").append(name).append("()\n");
+        sb.append("\t\tint value, count;\n");
+        sb.append("\t\tbool found;\n");
+        sb.append("\t{\n");
+        sb.append("\t\tarray = new int[").append(ARRAY_LENGTH).append("];\n");
+        sb.append("\t\tchars = new char[").append(ARRAY_LENGTH).append("];\n");
+
+        for (int i = firstStatement; i < firstStatement + statementCount; i++) {
+            appendStatement(sb, i);
+        }
+
+        sb.append("\t}\n");
+    }
+
+    /**
+     * Generates a program whose 'main' method consists of assignments with two integer literals each
+     * ('gN = gM * L1 + L2;'), with 'literalCount' literals in total and up to 1000 distinct literal values.
+     */
+    public static String generateLiterals(int literalCount) {
+        StringBuilder sb = new StringBuilder(literalCount * 12 + 256);
+
+        sb.append("program Literals\n\n");
+        sb.append("\tint ");
+        for (int i = 0; i < GLOBAL_COUNT; i++) {
+            sb.append('g').append(i).append(i + 1 < GLOBAL_COUNT ? ", " : ";\n");
+        }
+
+        sb.append("{\n");
+        sb.append("\tvoid main()\n");
+        sb.append("\t{\n");
+        for (int i = 0; i < literalCount / 2; i++) {
+            sb.append("\t\tg").append(i % GLOBAL_COUNT).append(" = g").append((i + 5) % GLOBAL_COUNT)
+                    .append(" * ").append(i % 1000).append(" + ").append((i * 7) % 1000).append(";\n");
+        }
+        sb.append("\t}\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Generates a program whose 'main' method allocates an array and then reads 'accessCount' of its elements
+     * ('g0 = array[N];'), without any other array operations.
+     */
+    public static String generateArrayAccesses(int accessCount) {
+        StringBuilder sb = new StringBuilder(accessCount * 20 + 128);
+
+        sb.append("program Accesses\n\n");
+        sb.append("\tint array[], g0;\n");
+
+        sb.append("{\n");
+        sb.append("\tvoid main()\n");
+        sb.append("\t{\n");
+        sb.append("\t\tarray = new int[").append(ARRAY_LENGTH).append("];\n");
+        for (int i = 0; i < accessCount; i++) {
+            sb.append("\t\tg0 = array[").append(i % ARRAY_LENGTH).append("];\n");
+        }
+        sb.append("\t}\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Generates a program that allocates an int or char array of the given length (all elements are zero) and calls
+     * 'findAny' with a missing value or 'findAll' with zero on it, so that the call compares all elements.
+     */
+    public static String generateFindCall(boolean charElements, boolean findAll, int arrayLength) {
+        String type = charElements ? "char" : "int";
+        StringBuilder sb = new StringBuilder(256);
+
+        sb.append("program Find\n\n");
+        sb.append("\t").append(type).append(" array[];\n");
+        sb.append("\tint count;\n");
+        sb.append("\tbool found;\n");
+
+        sb.append("{\n");
+        sb.append("\tvoid main()\n");
+        sb.append("\t{\n");
+        sb.append("\t\tarray = new ").append(type).append("[").append(arrayLength).append("];\n");
+        if (findAll) sb.append("\t\tcount = array.findAll(array[0]);\n");
+        else sb.append("\t\tfound = array.findAny(").append(charElements ? "'x'" : "1").append(");\n");
+        sb.append("\t}\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Generates a program with 'declarationCount' global declarations (alternately an int variable and an int constant)
+     * and a 'main' method that reads 1000 of them, spread over the whole program.
+     */
+    public static String generateDeclarations(int declarationCount) {
+        StringBuilder sb = new StringBuilder(declarationCount * 20 + 32_000);
+
+        sb.append("program Declarations\n\n");
+        for (int i = 0; i < declarationCount; i++) {
+            if (i % 2 == 0) sb.append("\tint v").append(i).append(";\n");
+            else sb.append("\tconst int c").append(i).append(" = ").append(i).append(";\n");
+        }
+
+        sb.append("{\n");
+        sb.append("\tvoid main()\n");
+        sb.append("\t\tint x;\n");
+        sb.append("\t{\n");
+        for (int i = 0; i < 1000; i++) {
+            int k = (int) ((long) i * 7919 % declarationCount) & ~1;
+            sb.append("\t\tx = v").append(k).append(" + c").append(k + 1 < declarationCount ? k + 1 : 1).append(";\n");
+        }
+        sb.append("\t}\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Generates a program with 'declarationCount' global arrays (alternately of ints and of chars), followed by
+     * 1000 statements that assign the arrays to each other and call 'findAny' and 'findAll' on them.
+     */
+    public static String generateArrayDeclarations(int declarationCount) {
+        StringBuilder sb = new StringBuilder(declarationCount * 16 + 40_000);
+
+        sb.append("program ArrayDeclarations\n\n");
+        sb.append("\tbool found;\n");
+        sb.append("\tint count;\n");
+        for (int i = 0; i < declarationCount; i++) {
+            sb.append(i % 2 == 0 ? "\tint a" : "\tchar a").append(i).append("[];\n");
+        }
+
+        sb.append("{\n");
+        sb.append("\tvoid main()\n");
+        sb.append("\t{\n");
+        for (int i = 0; i < 1000; i++) {
+            int k = (int) ((long) i * 7919 % declarationCount);
+            int j = (int) ((long) i * 104729 % declarationCount);
+            if ((j - k) % 2 != 0) j = j > 0 ? j - 1 : j + 1;
+            String value = k % 2 == 0 ? "1" : "'x'";
+            switch (i % 3) {
+                case 0: sb.append("\t\ta").append(k).append(" = a").append(j).append(";\n"); break;
+                case 1: sb.append("\t\tfound = a").append(k).append(".findAny(").append(value).append(");\n"); break;
+                default: sb.append("\t\tcount = a").append(k).append(".findAll(").append(value).append(");\n");
+            }
+        }
+        sb.append("\t}\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Generates a short program that calls every runtime helper: it prints a 'bool', calls 'findAny' and 'findAll'
+     * on an int and a char array and allocates and indexes an array with a variable length and index.
+     */
+    public static String generateHelperCalls() {
+        return "program Helpers\n\n"
+                + "\tint numbers[], n, count;\n"
+                + "\tchar letters[];\n"
+                + "{\n"
+                + "\tvoid main()\n"
+                + "\t{\n"
+                + "\t\tread(n);\n"
+                + "\t\tnumbers = new int[n];\n"
+                + "\t\tletters = new char[n];\n"
+                + "\t\tnumbers[n - 1] = n;\n"
+                + "\t\tprint(numbers.findAny(n));\n"
+                + "\t\tprint(letters.findAny('x'));\n"
+                + "\t\tcount = numbers.findAll(0) + letters.findAll('x');\n"
+                + "\t\tprint(count);\n"
+                + "\t}\n"
+                + "}\n";
+    }
+
+    private static void appendStatement(StringBuilder sb, int i) {
+        String target = "g" + (i % GLOBAL_COUNT);
+        String left = "g" + ((i + 3) % GLOBAL_COUNT);
+        String right = "g" + ((i + 7) % GLOBAL_COUNT);
+        int index = i % ARRAY_LENGTH;
+
+        sb.append("\t\t");
+        switch (i % 10) {
+            case 0:
+                sb.append(target).append(" = ").append(left).append(" + ").append(i % 97)
+                        .append(" * one - ").append(right).append(" / 3;\n");
+                break;
+            case 1:
+                sb.append("array[").append(index).append("] = array[").append((index + 1) % ARRAY_LENGTH)
+                        .append("] * 2 + value;\n");
+                break;
+            case 2:
+                sb.append("value++;\n");
+                break;
+            case 3:
+                sb.append("value = -value + (five * ").append(left).append(" / 2 - one) % 3;\n");
+                break;
+            case 4:
+                sb.append("print(").append(target).append(", 3);\n");
+                break;
+            case 5:
+                sb.append("found = array.findAny(value + ").append(i % 13).append(");\n");
+                break;
+            case 6:
+                sb.append("count = array.findAll(array[one * ").append(index % 4).append("]);\n");
+                break;
+            case 7:
+                sb.append("chars[").append(index).append("] = letter;\n");
+                break;
+            case 8:
+                sb.append("{ ").append(right).append("--; print(chars[five - ").append(index % 5).append("]); }\n");
+                break;
+            default:
+                sb.append("print(found);\n");
+        }
+    }
+}
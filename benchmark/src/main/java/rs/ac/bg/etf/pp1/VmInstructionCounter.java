@@ -0,0 +1,103 @@
+package rs.ac.bg.etf.pp1;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import rs.etf.pp1.mj.runtime.Run;
+
+/**
+ * Compiles MicroJava programs and counts the instructions that the MicroJava VM executes when running them.
+ * <p>
+ * The VM prints every executed instruction when it is run with '-debug' (a line starting with its address, followed
+ * by a line with the expression stack). The trace is counted while it is printed, so it is never stored.
+ */
+final class VmInstructionCounter {
+    static {
+        // Loading 'Compiler' configures log4j, which would otherwise log every compilation
+        try {
+            Class.forName(Compiler.class.getName());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+        Logger.getRootLogger().setLevel(Level.OFF);
+    }
+
+    /**
+     * Executed instructions and the size of the generated code of a program.
+     */
+    static final class Result {
+        final long instructions;
+        final int codeSize;
+
+        Result(long instructions, int codeSize) {
+            this.instructions = instructions;
+            this.codeSize = codeSize;
+        }
+    }
+
+    private VmInstructionCounter() {
+    }
+
+    static Result run(String program, CompilerOptions options) throws Exception {
+        return run(program, options, "");
+    }
+
+    /**
+     * Runs the program with the given text as its standard input (for 'read').
+     */
+    static Result run(String program, CompilerOptions options, String input) throws Exception {
+        CompilationContext context = new CompilationContext(options.setDumpSymbolTable(false));
+        File objFile = File.createTempFile("mj-instructions", ".obj");
+        try {
+            if (!Compiler.compile(context, new StringReader(program), "program", objFile))
+                throw new IllegalStateException("Compilation failed: " + context.getDiagnostics());
+
+            TraceCounter trace = new TraceCounter();
+            PrintStream out = System.out;
+            InputStream in = System.in;
+            System.setOut(new PrintStream(trace, false));
+            System.setIn(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+            try {
+                Run.main(new String[]{objFile.getPath(), "-debug"});
+            } finally {
+                System.out.flush();
+                System.setOut(out);
+                System.setIn(in);
+            }
+            return new Result(trace.count, context.getCode().pc);
+        } finally {
+            objFile.delete();
+        }
+    }
+
+    /**
+     * Counts the lines of the form '<spaces><digits>:' written to it.
+     */
+    private static final class TraceCounter extends OutputStream {
+        private static final int LEADING_SPACES = 0, ADDRESS = 1, OTHER = 2;
+
+        private int state = LEADING_SPACES;
+        private long count = 0;
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                state = LEADING_SPACES;
+            } else if (state == LEADING_SPACES) {
+                if (b >= '0' && b <= '9') state = ADDRESS;
+                else if (b != ' ') state = OTHER;
+            } else if (state == ADDRESS) {
+                if (b == ':') count++;
+                if (b < '0' || b > '9') state = OTHER;
+            }
+        }
+    }
+}
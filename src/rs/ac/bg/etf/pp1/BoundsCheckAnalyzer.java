@@ -0,0 +1,277 @@
+package rs.ac.bg.etf.pp1;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import rs.ac.bg.etf.pp1.ast.*;
+import rs.ac.bg.etf.pp1.util.CommonUtils;
+import rs.etf.pp1.symboltable.Tab;
+import rs.etf.pp1.symboltable.concepts.Obj;
+import rs.etf.pp1.symboltable.concepts.Struct;
+
+/**
+ * Range analysis that proves array accesses and array allocations safe, so that their runtime checks can be omitted.
+ * <p>
+ * MicroJava methods have no branches or loops, so a method body is analyzed in a single bottom-up traversal, which
+ * visits the nodes in the order in which their code is executed. The analysis keeps:
+ * - the range of values of every 'int' variable ('[lo, hi]', unknown at the start of the method),
+ * - for every array variable, whether it is allocated and the minimum length it is known to have.
+ * <p>
+ * An array access needs no members access check if the array is known to be allocated, and no index check if,
+ * in addition, the range of the index lies within '[0, minimum length)'. An allocation needs no length check
+ * if the length is known to be non-negative. A checked access (or allocation) that does not trap also tells
+ * the analysis that the array is allocated and longer than the smallest possible index.
+ */
+public class BoundsCheckAnalyzer extends VisitorAdaptor {
+    /**
+     * Range of values of an 'int' expression or variable.
+     */
+    private static final class Range {
+        static final Range UNKNOWN = new Range(Integer.MIN_VALUE, Integer.MAX_VALUE);
+
+        final int lo, hi;
+
+        Range(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        static Range of(long lo, long hi) {
+            return (lo < Integer.MIN_VALUE || hi > Integer.MAX_VALUE) ? UNKNOWN : new Range((int) lo, (int) hi);
+        }
+    }
+
+    /* Class fields */
+    // State of the variables at the current point of the method
+    private final Map<Obj, Range> variableRanges = new HashMap<>();
+    private final Map<Obj, Integer> arrayLengths = new HashMap<>();    // Allocated arrays and their minimum lengths
+
+    // Results for the expressions of the method
+    private final Map<SyntaxNode, Range> ranges = new IdentityHashMap<>();
+    private final Map<SyntaxNode, Integer> arrays = new IdentityHashMap<>();  // Expressions that yield an allocated array
+
+    // Checks that can be omitted
+    private final Set<SyntaxNode> allocatedArrays = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<SyntaxNode> indicesInBounds = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<SyntaxNode> nonNegativeLengths = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    // Statistics for the whole compilation
+    private int accessCount, accessChecksEliminated, indexChecksEliminated;
+    private int allocationCount, lengthChecksEliminated;
+
+    /**
+     * Forgets the results for the previous method and analyzes the given method.
+     */
+    public void analyze(SyntaxNode methodDecl) {
+        variableRanges.clear();
+        arrayLengths.clear();
+        ranges.clear();
+        arrays.clear();
+        allocatedArrays.clear();
+        indicesInBounds.clear();
+        nonNegativeLengths.clear();
+
+        methodDecl.traverseBottomUp(this);
+    }
+
+    /* ---------> Productions related to statements <--------- */
+
+    @Override
+    public void visit(Assignment assignment) {
+        Obj dest = assignment.getDesignator().obj;
+        if (!isVariable(assignment.getDesignator())) return;
+
+        AssignmentValue value = assignment.getAssignmentValue();
+        Expr expr = value instanceof AssignmentValueExpr ? ((AssignmentValueExpr) value).getExpr() : null;
+
+        if (dest.getType().getKind() == Struct.Array) {
+            Integer length = expr != null ? arrays.get(expr) : null;
+            if (length != null) arrayLengths.put(dest, length);
+            else arrayLengths.remove(dest);
+        } else if (dest.getType() == Tab.intType) {
+            setRange(dest, expr != null ? getRange(expr) : Range.UNKNOWN);
+        }
+    }
+
+    @Override
+    public void visit(DesignatorInc designatorInc) {
+        shift(designatorInc.getDesignator(), 1);
+    }
+
+    @Override
+    public void visit(DesignatorDec designatorDec) {
+        shift(designatorDec.getDesignator(), -1);
+    }
+
+    @Override
+    public void visit(StatementRead statementRead) {
+        if (isVariable(statementRead.getDesignator())) setRange(statementRead.getDesignator().obj, Range.UNKNOWN);
+    }
+
+    /* ---------> Productions related to Designator <--------- */
+
+    @Override
+    public void visit(ArrayIndex arrayIndex) {
+        Obj array = arrayIndex.getArrayIndexPlaceholder().obj;
+        Range index = getRange(arrayIndex.getExpr());
+        Integer length = arrayLengths.get(array);
+        accessCount++;
+
+        if (length != null) {
+            allocatedArrays.add(arrayIndex);
+            accessChecksEliminated++;
+
+            if (index.lo >= 0 && index.hi < length) {
+                indicesInBounds.add(arrayIndex);
+                indexChecksEliminated++;
+            }
+        }
+
+        // After the access (if it did not trap), the array is allocated and longer than the index
+        if (index.lo >= 0) {
+            int minLength = (int) Math.min((long) index.lo + 1, Integer.MAX_VALUE);
+            arrayLengths.put(array, length == null ? minLength : Math.max(length, minLength));
+        } else if (length == null) {
+            arrayLengths.put(array, 0);
+        }
+    }
+
+    /* ---------> Productions related to Expr, Term, Factor <--------- */
+
+    @Override
+    public void visit(ExprAddOp addExpr) {
+        Range a = getRange(addExpr.getExpr()), b = getRange(addExpr.getTerm());
+
+        if (addExpr.getAddOperator().getClass() == PlusOp.class) {
+            ranges.put(addExpr, Range.of((long) a.lo + b.lo, (long) a.hi + b.hi));
+        } else {
+            ranges.put(addExpr, Range.of((long) a.lo - b.hi, (long) a.hi - b.lo));
+        }
+    }
+
+    @Override
+    public void visit(ExprTermPositive termExpr) {
+        passThrough(termExpr, termExpr.getTerm());
+    }
+
+    @Override
+    public void visit(ExprTermNegative termExpr) {
+        Range a = getRange(termExpr.getTerm());
+        ranges.put(termExpr, Range.of(-(long) a.hi, -(long) a.lo));
+    }
+
+    @Override
+    public void visit(TermMulOp mulTerm) {
+        Range a = getRange(mulTerm.getTerm()), b = getRange(mulTerm.getFactor());
+        Class<?> operator = mulTerm.getMulOperator().getClass();
+
+        if (operator == MulOp.class) {
+            long p1 = (long) a.lo * b.lo, p2 = (long) a.lo * b.hi, p3 = (long) a.hi * b.lo, p4 = (long) a.hi * b.hi;
+            ranges.put(mulTerm, Range.of(Math.min(Math.min(p1, p2), Math.min(p3, p4)), Math.max(Math.max(p1, p2), Math.max(p3, p4))));
+        } else if (b.lo == b.hi && b.lo > 0) {
+            // Division and remainder by a positive constant
+            if (operator == DivideOp.class) ranges.put(mulTerm, new Range(a.lo / b.lo, a.hi / b.lo));
+            else if (a.lo >= 0) ranges.put(mulTerm, new Range(0, Math.min(a.hi, b.lo - 1)));
+        }
+    }
+
+    @Override
+    public void visit(TermSingleFactor term) {
+        passThrough(term, term.getFactor());
+    }
+
+    @Override
+    public void visit(FactorVar factor) {
+        Designator designator = factor.getDesignator();
+        if (!isVariable(designator)) return;
+
+        Obj obj = designator.obj;
+        if (obj.getKind() == Obj.Con) {
+            ranges.put(factor, new Range(obj.getAdr(), obj.getAdr()));
+        } else if (obj.getType().getKind() == Struct.Array) {
+            if (arrayLengths.containsKey(obj)) arrays.put(factor, arrayLengths.get(obj));
+        } else if (variableRanges.containsKey(obj)) {
+            ranges.put(factor, variableRanges.get(obj));
+        }
+    }
+
+    @Override
+    public void visit(FactorConst factor) {
+        int value = CommonUtils.getConstValue(factor.getConst());
+        ranges.put(factor, new Range(value, value));
+    }
+
+    @Override
+    public void visit(FactorNewArray factorNewArray) {
+        Range length = getRange(factorNewArray.getExpr());
+        allocationCount++;
+
+        if (length.lo >= 0) {
+            nonNegativeLengths.add(factorNewArray);
+            lengthChecksEliminated++;
+        }
+
+        // A new array is always allocated (the length check traps otherwise)
+        arrays.put(factorNewArray, Math.max(length.lo, 0));
+    }
+
+    @Override
+    public void visit(FactorExpression factorBracketExpression) {
+        passThrough(factorBracketExpression, factorBracketExpression.getExpr());
+    }
+
+    /* Results */
+    public boolean isArrayAllocated(ArrayIndex arrayIndex) {
+        return allocatedArrays.contains(arrayIndex);
+    }
+
+    public boolean isIndexInBounds(ArrayIndex arrayIndex) {
+        return indicesInBounds.contains(arrayIndex);
+    }
+
+    public boolean isLengthNonNegative(FactorNewArray factorNewArray) {
+        return nonNegativeLengths.contains(factorNewArray);
+    }
+
+    @Override
+    public String toString() {
+        return "Bounds checks eliminated: " + accessChecksEliminated + " of " + accessCount + " array members access checks, "
+                + indexChecksEliminated + " of " + accessCount + " index checks, "
+                + lengthChecksEliminated + " of " + allocationCount + " array length checks";
+    }
+
+    /* Utility methods */
+    private Range getRange(SyntaxNode node) {
+        Range range = ranges.get(node);
+        return range != null ? range : Range.UNKNOWN;
+    }
+
+    private void passThrough(SyntaxNode node, SyntaxNode operand) {
+        if (ranges.containsKey(operand)) ranges.put(node, ranges.get(operand));
+        if (arrays.containsKey(operand)) arrays.put(node, arrays.get(operand));
+    }
+
+    private void setRange(Obj variable, Range range) {
+        if (range == Range.UNKNOWN) variableRanges.remove(variable);
+        else variableRanges.put(variable, range);
+    }
+
+    private void shift(Designator designator, int delta) {
+        if (!isVariable(designator) || designator.obj.getType() != Tab.intType) return;
+        setRange(designator.obj, shift(variableRanges.getOrDefault(designator.obj, Range.UNKNOWN), delta));
+    }
+
+    private static Range shift(Range range, int delta) {
+        return range == Range.UNKNOWN ? range : Range.of((long) range.lo + delta, (long) range.hi + delta);
+    }
+
+    /**
+     * Checks whether the designator is a whole variable (or constant), not an array element.
+     */
+    private static boolean isVariable(Designator designator) {
+        return designator.getDesignatorArrayIndex().getClass() == NoArrayIndex.class;
+    }
+}
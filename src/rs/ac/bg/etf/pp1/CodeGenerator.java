@@ -1,22 +1,48 @@
 package rs.ac.bg.etf.pp1;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import rs.ac.bg.etf.pp1.ast.*;
 import rs.etf.pp1.symboltable.*;
 import rs.etf.pp1.symboltable.concepts.*;
 import rs.etf.pp1.mj.runtime.*;
-import rs.ac.bg.etf.pp1.CounterVisitor.*;
+import rs.ac.bg.etf.pp1.util.CodeBuffer;
 import rs.ac.bg.etf.pp1.util.CommonUtils;
+import rs.ac.bg.etf.pp1.util.RuntimeHelper;
 
 public class CodeGenerator extends VisitorAdaptor {
     /* Class fields */
     private static final int DEFAULT_PRINT_WIDTH = 5;
+    private static final int MAX_FRAME_SIZE = 255; // The operands of 'enter' are single bytes
     private int mainPC; // Address of the first instruction of the main method (program) that the VM will execute
 
+    private final CompilationContext context;
+    private final CodeBuffer code;
+    private final ConstantFolder folder = new ConstantFolder();
+    private final BoundsCheckAnalyzer boundsChecks = new BoundsCheckAnalyzer();
+    private final LocalSlotAllocator slotAllocator = new LocalSlotAllocator(folder);
+    private final GlobalPromoter globalPromoter;
+    private List<GlobalPromoter.PromotedGlobal> promotedGlobals = Collections.emptyList(); // Globals promoted in the current method
+    private final List<Integer> guardFailureJumps = new ArrayList<>(); // Address fields of the inline guard jumps of the current method
+
+    public CodeGenerator(CompilationContext context) {
+        this.context = context;
+        this.code = context.getCode();
+        this.globalPromoter = new GlobalPromoter(folder, context.getOptions().isOptimizePeephole());
+    }
+
     /* ---------> 0. Productions related to the program <--------- */
 
+    /**
+     * The runtime helpers (printing of boolean values, 'findAny', 'findAll' and the array checks) are generated
+     * after all methods of the program, and only if the program calls them (the helpers called from distant methods
+     * of a large program are also generated between its methods, see 'visit(MethodTypeName)').
+     */
     @Override
-    public void visit(ProgName progName) {
-        CommonUtils.initCodeGenerator();
+    public void visit(Program program) {
+        CommonUtils.generateRuntimeHelpers(context);
     }
 
     /* ---------> 1. Productions related to constant declarations <--------- */
@@ -29,40 +55,105 @@ public class CodeGenerator extends VisitorAdaptor {
      * Consider code generation actions upon entering a method declaration.
      * <p>
      * Step by step:
+     * - generate the runtime helpers of the calls that are too far from the end of the code (see 'CommonUtils.generateDistantRuntimeHelpers'),
      * - set the value of the address of the first method instruction (methodObj.setAdr),
      * - set mainPC if it is the 'main' method,
-     * - count local variables of the method by traversing the tree rooted at the 'MethodDecl' node,
+     * - get the number of local variables of the method (recorded in its object node by the semantic analysis),
      * - set the code of the Code.enter instruction (creates an activation record),
      * - set the number of formal parameters on the stack,
      * - set the sum of the number of parameters and the number of local variables on the stack.
+     * <p>
+     * The constant expressions of the method are also folded here, so that their operands are not generated,
+     * and its array accesses are analyzed, so that the checks that cannot fail are not generated.
+     * Then the globals that it accesses often enough are promoted to locals (see 'GlobalPromoter'), the slots of its
+     * local variables are allocated (see 'LocalSlotAllocator'), and the promoted globals that are read before they are
+     * written are loaded into their slots.
      */
     @Override
     public void visit(MethodTypeName methodTypeName) {
         Obj methodObj = methodTypeName.obj;
 
-        // Set the method address field to the address of the first instruction in its body (Code.pc)
-        methodObj.setAdr(Code.pc);
+        // The helpers are unreachable here, after the final instructions of the previous method
+        CommonUtils.generateDistantRuntimeHelpers(context);
+
+        // Set the method address field to the address of the first instruction in its body (code.pc)
+        methodObj.setAdr(code.pc);
 
         // If it's the 'main' method, set the 'mainPC' value as well
         if ("main".equalsIgnoreCase(methodTypeName.getName())) {
-            this.mainPC = Code.pc;
+            this.mainPC = code.pc;
         }
 
         // Get the 'MethodDecl' node parent of the given node
         SyntaxNode methodDeclParentNode = methodTypeName.getParent();
 
-        // Count the declarations of local variables for this method
-        LocalVarCounter localVarCounter = new LocalVarCounter();
-        methodDeclParentNode.traverseTopDown(localVarCounter);
+        // Evaluate the constant expressions of this method before generating its code
+        if (context.getOptions().isFoldConstants()) {
+            folder.fold(methodDeclParentNode);
+        }
+        if (context.getOptions().isEliminateBoundsChecks()) {
+            boundsChecks.analyze(methodDeclParentNode);
+        }
+
+        int localVarCount = context.getLocalVarCount(methodObj);
+        promotedGlobals = Collections.emptyList();
+        if (context.getOptions().isPromoteGlobals()) {
+            promotedGlobals = globalPromoter.promote((MethodDecl) methodDeclParentNode, localVarCount);
+        }
+        if (context.getOptions().isAllocateLocalSlots()) {
+            localVarCount = slotAllocator.allocate((MethodDecl) methodDeclParentNode, promotedGlobals);
+        } else {
+            // The promoted globals follow the declared locals
+            for (GlobalPromoter.PromotedGlobal promotedGlobal : promotedGlobals) {
+                promotedGlobal.getLocal().setAdr(localVarCount++);
+            }
+        }
+        if (localVarCount > MAX_FRAME_SIZE) {
+            code.error("Error: Method " + methodObj.getName() + " needs " + localVarCount + " local variable slots, but at most " + MAX_FRAME_SIZE + " are supported");
+        }
 
         // Generate the 'enter' instruction for entering the method
-        CommonUtils.generateMethodInitialCode(0, localVarCounter.getCount());
+        guardFailureJumps.clear();
+        CommonUtils.generateMethodInitialCode(context, 0, localVarCount);
+
+        for (GlobalPromoter.PromotedGlobal promotedGlobal : promotedGlobals) {
+            if (promotedGlobal.isLoadedOnEntry()) {
+                code.load(promotedGlobal.getGlobal());
+                code.store(promotedGlobal.getLocal());
+            }
+        }
     }
 
+    /**
+     * Generates the final code of the method, followed by the trap stub of its inline array guards (if any).
+     * The promoted globals that the method writes are stored back before it exits.
+     * <p>
+     * The inline guards jump to the stub with the array address and the index on the top of the stack. The stub calls
+     * the combined array access check function with them, which prints the same message as the call-based checks and halts.
+     */
     @Override
     public void visit(MethodDecl methodDecl) {
+        for (GlobalPromoter.PromotedGlobal promotedGlobal : promotedGlobals) {
+            if (promotedGlobal.isStoredOnExit()) {
+                code.load(promotedGlobal.getLocal());
+                code.store(promotedGlobal.getGlobal());
+            }
+        }
+
         // Generate instructions that are executed at the end of the method
-        CommonUtils.generateMethodFinalCode();
+        CommonUtils.generateMethodFinalCode(context);
+
+        if (!guardFailureJumps.isEmpty()) {
+            for (int jumpAddress : guardFailureJumps) {
+                code.fixup(jumpAddress);
+            }
+            CommonUtils.generateHelperCall(context, RuntimeHelper.ARRAY_ACCESS_CHECK);
+        }
+
+        if (context.getMetrics().isEnabled()) {
+            Obj methodObj = methodDecl.getMethodTypeName().obj;
+            context.getMetrics().addMethod(methodObj.getName(), code.pc - methodObj.getAdr());
+        }
     }
 
     /* ---------> 4. Language statements: Print, Return, Read <--------- */
@@ -82,15 +173,15 @@ public class CodeGenerator extends VisitorAdaptor {
         if (printStmt.getPrintParam().getClass() == PrintWidth.class) {
             widthValue = ((PrintWidth) printStmt.getPrintParam()).getWidth();
         }
-        Code.loadConst(widthValue);
+        code.loadConst(widthValue);
 
         // Depending on the type of 'var' value, generate bytecode for the corresponding 'print' instruction
         if (printStmt.getExpr().struct == Tab.intType) {
-            Code.put(Code.print);
+            code.put(Code.print);
         } else if (printStmt.getExpr().struct == Tab.charType) {
-            Code.put(Code.bprint);
+            code.put(Code.bprint);
         } else { //boolType
-            CommonUtils.generateMethodCall(CommonUtils.getPrintBoolFunctionAddress());
+            CommonUtils.generateHelperCall(context, RuntimeHelper.PRINT_BOOL);
         }
     }
 
@@ -101,9 +192,9 @@ public class CodeGenerator extends VisitorAdaptor {
     @Override
     public void visit(StatementRead statementRead) {
         Struct argType = statementRead.getDesignator().obj.getType();
-        Code.put(argType == Tab.charType ? Code.bread : Code.read);
+        code.put(argType == Tab.charType ? Code.bread : Code.read);
 
-        Code.store(statementRead.getDesignator().obj);
+        code.store(globalPromoter.getVariable(statementRead.getDesignator().obj));
     }
 
     /* ---------> 5. Productions related to Designator and DesignatorStatement <--------- */
@@ -112,23 +203,23 @@ public class CodeGenerator extends VisitorAdaptor {
     public void visit(DesignatorInc designatorInc) {
         // Here, the value of the sum of the constant 1 and the value of the variable is actually assigned
         // So we put the value of the variable on the stack, then the value 1, then perform the 'add' operation
-        Obj designatorObj = designatorInc.getDesignator().obj;
+        Obj designatorObj = globalPromoter.getVariable(designatorInc.getDesignator().obj);
 
         switch (designatorObj.getKind()) {
             case Obj.Var:
                 // Put the variable on top of the stack (generates instructions: load_n or getstatic n)
-                Code.load(designatorObj);
+                code.load(designatorObj);
                 break;
             case Obj.Elem:
                 // Due to previously visiting the 'DesignatorArrayIndex' node, we have: array address and element index on the stack
                 // To get elem := elem + 1, we duplicate the values and put the array element on the stack
-                Code.put(Code.dup2);
-                Code.load(designatorObj);
+                code.put(Code.dup2);
+                code.load(designatorObj);
                 break;
         }
 
-        Code.loadConst(1);
-        Code.put(Code.add);
+        code.loadConst(1);
+        code.put(Code.add);
 
         // After this, 'add' will generate and put the incremented result on the stack
         // We generate the instruction that takes this value and stores it into the 'designator' destination
@@ -138,29 +229,29 @@ public class CodeGenerator extends VisitorAdaptor {
          * - astore for arrays (expects array address and index on the stack, which were placed earlier,
          * - in the 'switch' above, and after them the computed value, i.e., the add result)
          */
-        Code.store(designatorObj);
+        code.store(designatorObj);
     }
 
     @Override
     public void visit(DesignatorDec designatorDec) {
-        Obj designatorObj = designatorDec.getDesignator().obj;
+        Obj designatorObj = globalPromoter.getVariable(designatorDec.getDesignator().obj);
 
         switch (designatorObj.getKind()) {
             case Obj.Var:
-                Code.load(designatorObj);
+                code.load(designatorObj);
                 break;
             case Obj.Elem:
-                Code.put(Code.dup2);
-                Code.load(designatorObj);
+                code.put(Code.dup2);
+                code.load(designatorObj);
                 break;
         }
 
-        Code.loadConst(1);
-        Code.put(Code.sub);
+        code.loadConst(1);
+        code.put(Code.sub);
 
         // After this, 'sub' will generate and put the decremented result on the stack
         // We need to put the instruction that takes this value and stores it into the 'designator' destination
-        Code.store(designatorObj);
+        code.store(designatorObj);
     }
 
     /**
@@ -176,21 +267,23 @@ public class CodeGenerator extends VisitorAdaptor {
     @Override
     public void visit(Assignment assignment) {
         // Generate an instruction that stores the value into the 'destination'
-        Code.store(assignment.getDesignator().obj);
+        code.store(globalPromoter.getVariable(assignment.getDesignator().obj));
     }
 
     /**
      * Since both 'Designator' and 'Expr' are visited, the 'array address' and 'expression' are on the stack.
-     * Only the code for the method call to 'findAny' needs to be generated.
+     * Only the code for the method call to the 'findAny' specialization for the array element type needs to be generated.
      */
     @Override
     public void visit(AssignmentValueFindAny assignmentValue) {
-        CommonUtils.generateMethodCall(CommonUtils.getFindAnyFunctionAddress());
+        boolean charArray = CommonUtils.isCharArray(assignmentValue.getDesignator());
+        CommonUtils.generateHelperCall(context, charArray ? RuntimeHelper.CHAR_FIND_ANY : RuntimeHelper.FIND_ANY);
     }
 
     @Override
     public void visit(AssignmentValueFindAll assignmentValue) {
-        CommonUtils.generateMethodCall(CommonUtils.getFindAllFunctionAddress());
+        boolean charArray = CommonUtils.isCharArray(assignmentValue.getDesignator());
+        CommonUtils.generateHelperCall(context, charArray ? RuntimeHelper.CHAR_FIND_ALL : RuntimeHelper.FIND_ALL);
     }
 
     /**
@@ -204,96 +297,210 @@ public class CodeGenerator extends VisitorAdaptor {
     public void visit(Designator designator) {
         SyntaxNode parent = designator.getParent();
 
+        // A folded 'FactorVar' is generated as a constant (or not at all)
+        if (parent.getClass() == FactorVar.class && isFolded(parent)) return;
+
         if (parent.getClass() == AssignmentValueFindAny.class || parent.getClass() == AssignmentValueFindAll.class || parent.getClass() == FactorVar.class) {
-            Code.load(designator.obj);
+            code.load(globalPromoter.getVariable(designator.obj));
         }
     }
 
     /**
      * Check the access to array elements and the array index value.
-     * - Access checks are performed with "guards" calls.
+     * - Access checks are performed with "guards" calls (or inline, see 'generateInlineArrayGuard').
      * - If the condition for accessing the array or index is not met, "guards" may cause an error.
+     * - Checks that the bounds check analysis proved unnecessary are not generated.
      */
     @Override
     public void visit(ArrayIndex arrayIndex) {
-        // Copy the array address and index before checking array element access
-        Code.put(Code.dup2);
+        if (context.getOptions().isInlineArrayGuards()) {
+            generateInlineArrayGuard(!boundsChecks.isArrayAllocated(arrayIndex), !boundsChecks.isIndexInBounds(arrayIndex));
+            return;
+        }
 
-        // Leave only the array address on the top of the stack
-        Code.put(Code.pop);
+        if (!boundsChecks.isArrayAllocated(arrayIndex)) {
+            // Copy the array address and index before checking array element access
+            code.put(Code.dup2);
 
-        // Generate the method call for checking array element access (takes the value off the top of the stack)
-        CommonUtils.generateMethodCall(CommonUtils.getArrayMembersAccessCheckFunctionAddress());
+            // Leave only the array address on the top of the stack
+            code.put(Code.pop);
 
-        // Copy the address and index again, then check the array index value
-        Code.put(Code.dup2);
-        CommonUtils.generateMethodCall(CommonUtils.getArrayIndexCheckFunctionAddress());
+            // Generate the method call for checking array element access (takes the value off the top of the stack)
+            CommonUtils.generateHelperCall(context, RuntimeHelper.ARRAY_MEMBERS_ACCESS_CHECK);
+        }
+
+        if (!boundsChecks.isIndexInBounds(arrayIndex)) {
+            // Copy the address and index again, then check the array index value
+            code.put(Code.dup2);
+            CommonUtils.generateHelperCall(context, RuntimeHelper.ARRAY_INDEX_CHECK);
+        }
+    }
+
+    /**
+     * Generates the checks of an array access inline. The array address and the index are on the stack ('..., adr, index')
+     * and stay there; every failed check jumps to the trap stub of the method with them on the top of the stack.
+     * <p>
+     * Instructions (12 when both checks are generated, none of them a call):
+     * - null check: 'dup2; pop; const_0; jeq stub',
+     * - bounds check: 'dup; const_0; jlt stub' and 'dup2; dup_x1; pop; arraylength; jge stub'.
+     */
+    private void generateInlineArrayGuard(boolean checkAllocated, boolean checkIndex) {
+        // The jumps target their own address until the stub is generated (an absolute placeholder would not fit beyond 32 KB)
+        if (checkAllocated) {
+            // '..., adr, index, adr, 0': jump if the array is not allocated
+            code.put(Code.dup2);
+            code.put(Code.pop);
+            code.loadConst(0);
+            code.putFalseJump(Code.ne, code.pc);
+            guardFailureJumps.add(code.pc - 2);
+        }
+
+        if (checkIndex) {
+            // '..., adr, index, index, 0': jump if the index is negative
+            code.put(Code.dup);
+            code.loadConst(0);
+            code.putFalseJump(Code.ge, code.pc);
+            guardFailureJumps.add(code.pc - 2);
+
+            // '..., adr, index, index, length': jump if the index is not less than the array length
+            code.put(Code.dup2);
+            code.put(Code.dup_x1);
+            code.put(Code.pop);
+            code.put(Code.arraylength);
+            code.putFalseJump(Code.lt, code.pc);
+            guardFailureJumps.add(code.pc - 2);
+        }
     }
 
     @Override
     public void visit(ArrayIndexPlaceholder placeholder) {
         // It must place the array address before encountering 'Expr:arrayIndex'
-        Code.load(placeholder.obj);
+        code.load(globalPromoter.getVariable(placeholder.obj));
     }
 
     /* ---------> 6. Productions related to Expr, Term, Factor, Const <--------- */
 
+    /*
+     * If the constant folder evaluated a node, only the root of the constant subtree pushes its value onto the stack.
+     * Simplified operations ('x + 0', 'x * 1', ...) generate only the code of their non-constant operand.
+     */
+
     @Override
     public void visit(ExprAddOp addExpr) {
+        if (loadFolded(addExpr) || folder.isSimplified(addExpr)) return;
+
         // Nodes of operands are already visited, and values pushed onto the stack
         if (addExpr.getAddOperator().getClass() == PlusOp.class) {
-            Code.put(Code.add);
+            code.put(Code.add);
         } else {
-            Code.put(Code.sub);
+            code.put(Code.sub);
         }
     }
 
+    @Override
+    public void visit(ExprTermPositive exprTermPositive) {
+        loadFolded(exprTermPositive);
+    }
+
     @Override
     public void visit(ExprTermNegative exprTermNegative) {
+        if (loadFolded(exprTermNegative) || folder.isSimplified(exprTermNegative)) return;
+
         // The value has already been placed on the stack by visiting 'Term'; it needs to be negated
-        Code.put(Code.neg);
+        code.put(Code.neg);
     }
 
     @Override
     public void visit(TermMulOp mulTerm) {
+        if (loadFolded(mulTerm) || folder.isSimplified(mulTerm)) return;
+
         MulOperator mulOperator = mulTerm.getMulOperator();
 
         // Place the operation code onto the stack
         if (mulOperator.getClass() == MulOp.class) {
-            Code.put(Code.mul);
+            code.put(Code.mul);
         } else if (mulOperator.getClass() == DivideOp.class) {
-            Code.put(Code.div);
-        } else Code.put(Code.rem);
+            code.put(Code.div);
+        } else code.put(Code.rem);
+    }
+
+    @Override
+    public void visit(TermSingleFactor termSingleFactor) {
+        loadFolded(termSingleFactor);
+    }
+
+    @Override
+    public void visit(FactorVar factorVar) {
+        // The variable itself is loaded when visiting 'Designator'
+        loadFolded(factorVar);
+    }
+
+    @Override
+    public void visit(FactorExpression factorExpression) {
+        loadFolded(factorExpression);
     }
 
     @Override
     public void visit(FactorNewArray factorNewArray) {
         // The array length is already on the stack due to traversal: FactorNewArray -> Expr
-        // Duplicate the array length value and generate a method call to check the length
-        Code.put(Code.dup);
-        CommonUtils.generateMethodCall(CommonUtils.getArrayLengthCheckFunctionAddress()); // Pops an element off the top of the stack
+        // Duplicate the array length value and generate a method call to check the length (unless it cannot be negative)
+        if (!boundsChecks.isLengthNonNegative(factorNewArray)) {
+            code.put(Code.dup);
+            CommonUtils.generateHelperCall(context, RuntimeHelper.ARRAY_LENGTH_CHECK); // Pops an element off the top of the stack
+        }
 
         // Generate code instruction for array creation
-        Code.put(Code.newarray);
+        code.put(Code.newarray);
 
         // Generate 0 for char type (array of characters) or 1 (for int, bool, class type)
-        Code.put(factorNewArray.struct.getElemType() == Tab.charType ? 0 : 1);
+        code.put(factorNewArray.struct.getElemType() == Tab.charType ? 0 : 1);
     }
 
     @Override
     public void visit(FactorConst factor) {
+        if (loadFolded(factor)) return;
+
         Const cnst = factor.getConst();
         int constValue = CommonUtils.getConstValue(cnst);
 
-        // Create a global unnamed constant in the symbol table
-        Obj cnstObj = CommonUtils.addConstToSymTable("$", cnst.struct, constValue);
+        // Take the global unnamed constant from the literal pool (it is not inserted into the symbol table)
+        Obj cnstObj = context.getLiteralPool().get(cnst.struct, constValue);
 
         // Since 'FactorConst' is part of 'Expr', generate an instruction (const or const_x) to push the constant onto the stack
-        Code.load(cnstObj);
+        code.load(cnstObj);
     }
 
     /* Utility methods */
+    private boolean isFolded(SyntaxNode node) {
+        return folder.isConstant(node) || folder.isElided(node);
+    }
+
+    /**
+     * Generates the value of a folded node if it is the root of a constant subtree.
+     *
+     * @return Returns true if the code of the node is determined by the constant folder.
+     */
+    private boolean loadFolded(SyntaxNode node) {
+        if (folder.isElided(node)) return true;
+        if (!folder.isConstant(node)) return false;
+
+        code.loadConst(folder.getValue(node));
+        return true;
+    }
+
     public int getMainPC() {
         return mainPC;
     }
+
+    public BoundsCheckAnalyzer getBoundsCheckAnalyzer() {
+        return boundsChecks;
+    }
+
+    public LocalSlotAllocator getLocalSlotAllocator() {
+        return slotAllocator;
+    }
+
+    public GlobalPromoter getGlobalPromoter() {
+        return globalPromoter;
+    }
 }
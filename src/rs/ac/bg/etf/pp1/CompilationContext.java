@@ -0,0 +1,226 @@
+package rs.ac.bg.etf.pp1;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import rs.ac.bg.etf.pp1.ast.Program;
+import rs.ac.bg.etf.pp1.util.CodeBuffer;
+import rs.ac.bg.etf.pp1.util.CompilationMetrics;
+import rs.ac.bg.etf.pp1.util.LiteralPool;
+import rs.ac.bg.etf.pp1.util.NameTable;
+import rs.ac.bg.etf.pp1.util.RuntimeHelper;
+import rs.ac.bg.etf.pp1.util.SymbolTable;
+import rs.etf.pp1.symboltable.concepts.Obj;
+
+/**
+ * Holds the complete state of a single compilation: the options, the syntax tree, the interned names, the symbol table,
+ * the literal pool, the code buffer, the collected diagnostics, the metrics and the addresses of the generated runtime helper functions.
+ * <p>
+ * No compiler phase keeps its state in static fields, so every compilation gets its own context
+ * and any number of programs can be compiled in parallel in the same JVM.
+ */
+public class CompilationContext {
+    /* Class fields */
+    private final CompilerOptions options;
+    private final CompilationMetrics metrics;
+    private final NameTable nameTable = new NameTable();
+    private final SymbolTable symbolTable;
+    private final LiteralPool literalPool = new LiteralPool();
+    private final CodeBuffer code = new CodeBuffer();
+    private final List<String> diagnostics = new ArrayList<>();
+
+    private Program program = null;
+
+    // Number of local variables of every method, recorded by the semantic analysis (the methods may be analyzed in parallel)
+    private final Map<Obj, Integer> localVarCounts = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    // Addresses of the calls to every runtime helper (patched when the helpers are generated)
+    private final Map<RuntimeHelper, List<Integer>> helperCalls = new EnumMap<>(RuntimeHelper.class);
+
+    // Addresses of the runtime helpers in every group generated so far (a large program may have several copies of them)
+    private final List<Map<RuntimeHelper, Integer>> helperGroups = new ArrayList<>();
+
+    // Addresses of the runtime helpers (in the last group that contains them), -1 if not generated
+    private int printBoolFunctionAddress = -1;
+    // Specializations of 'findAny' and 'findAll' for arrays of words (int, bool) and of bytes (char)
+    private int findAnyFunctionAddress = -1;
+    private int findAllFunctionAddress = -1;
+    private int charFindAnyFunctionAddress = -1;
+    private int charFindAllFunctionAddress = -1;
+
+    private int arrayLengthCheckFunctionAddress = -1;
+    private int arrayMembersAccessCheckFunctionAddress = -1;
+    private int arrayAccessCheckFunctionAddress = -1;
+    private int arrayIndexCheckFunctionAddress = -1;
+
+    public CompilationContext() {
+        this(new CompilerOptions());
+    }
+
+    public CompilationContext(CompilerOptions options) {
+        this.options = options;
+        this.metrics = new CompilationMetrics(options.isCollectMetrics());
+        this.symbolTable = new SymbolTable(metrics);
+    }
+
+    /**
+     * Records an error message (lexical, syntax, semantic or code generation) reported during this compilation.
+     */
+    public void addDiagnostic(String message) {
+        diagnostics.add(message);
+    }
+
+    /**
+     * Records the number of local variables of a method, so that the code generator does not have to count them.
+     * The slot of every local variable is its address.
+     */
+    public void setLocalVarCount(Obj methodObj, int localVarCount) {
+        localVarCounts.put(methodObj, localVarCount);
+    }
+
+    public int getLocalVarCount(Obj methodObj) {
+        Integer localVarCount = localVarCounts.get(methodObj);
+        return localVarCount != null ? localVarCount : 0;
+    }
+
+    /**
+     * Records a call to a runtime helper, whose address field at 'callAddress + 1' is patched later.
+     */
+    public void addHelperCall(RuntimeHelper helper, int callAddress) {
+        List<Integer> calls = helperCalls.get(helper);
+        if (calls == null) {
+            calls = new ArrayList<>();
+            helperCalls.put(helper, calls);
+        }
+        calls.add(callAddress);
+    }
+
+    /* Getters and setters */
+    public CompilerOptions getOptions() {
+        return options;
+    }
+
+    public List<String> getDiagnostics() {
+        return diagnostics;
+    }
+
+    public CompilationMetrics getMetrics() {
+        return metrics;
+    }
+
+    public NameTable getNameTable() {
+        return nameTable;
+    }
+
+    public SymbolTable getSymbolTable() {
+        return symbolTable;
+    }
+
+    public LiteralPool getLiteralPool() {
+        return literalPool;
+    }
+
+    public CodeBuffer getCode() {
+        return code;
+    }
+
+    public Program getProgram() {
+        return program;
+    }
+
+    public void setProgram(Program program) {
+        this.program = program;
+    }
+
+    public Map<Obj, Integer> getLocalVarCounts() {
+        return localVarCounts;
+    }
+
+    public Map<RuntimeHelper, List<Integer>> getHelperCalls() {
+        return helperCalls;
+    }
+
+    public void addHelperGroup(Map<RuntimeHelper, Integer> helperAddresses) {
+        helperGroups.add(helperAddresses);
+    }
+
+    public List<Map<RuntimeHelper, Integer>> getHelperGroups() {
+        return helperGroups;
+    }
+
+    public int getPrintBoolFunctionAddress() {
+        return printBoolFunctionAddress;
+    }
+
+    public void setPrintBoolFunctionAddress(int printBoolFunctionAddress) {
+        this.printBoolFunctionAddress = printBoolFunctionAddress;
+    }
+
+    public int getFindAnyFunctionAddress() {
+        return findAnyFunctionAddress;
+    }
+
+    public void setFindAnyFunctionAddress(int findAnyFunctionAddress) {
+        this.findAnyFunctionAddress = findAnyFunctionAddress;
+    }
+
+    public int getFindAllFunctionAddress() {
+        return findAllFunctionAddress;
+    }
+
+    public void setFindAllFunctionAddress(int findAllFunctionAddress) {
+        this.findAllFunctionAddress = findAllFunctionAddress;
+    }
+
+    public int getCharFindAnyFunctionAddress() {
+        return charFindAnyFunctionAddress;
+    }
+
+    public void setCharFindAnyFunctionAddress(int charFindAnyFunctionAddress) {
+        this.charFindAnyFunctionAddress = charFindAnyFunctionAddress;
+    }
+
+    public int getCharFindAllFunctionAddress() {
+        return charFindAllFunctionAddress;
+    }
+
+    public void setCharFindAllFunctionAddress(int charFindAllFunctionAddress) {
+        this.charFindAllFunctionAddress = charFindAllFunctionAddress;
+    }
+
+    public int getArrayLengthCheckFunctionAddress() {
+        return arrayLengthCheckFunctionAddress;
+    }
+
+    public void setArrayLengthCheckFunctionAddress(int arrayLengthCheckFunctionAddress) {
+        this.arrayLengthCheckFunctionAddress = arrayLengthCheckFunctionAddress;
+    }
+
+    public int getArrayMembersAccessCheckFunctionAddress() {
+        return arrayMembersAccessCheckFunctionAddress;
+    }
+
+    public void setArrayMembersAccessCheckFunctionAddress(int arrayMembersAccessCheckFunctionAddress) {
+        this.arrayMembersAccessCheckFunctionAddress = arrayMembersAccessCheckFunctionAddress;
+    }
+
+    public int getArrayAccessCheckFunctionAddress() {
+        return arrayAccessCheckFunctionAddress;
+    }
+
+    public void setArrayAccessCheckFunctionAddress(int arrayAccessCheckFunctionAddress) {
+        this.arrayAccessCheckFunctionAddress = arrayAccessCheckFunctionAddress;
+    }
+
+    public int getArrayIndexCheckFunctionAddress() {
+        return arrayIndexCheckFunctionAddress;
+    }
+
+    public void setArrayIndexCheckFunctionAddress(int arrayIndexCheckFunctionAddress) {
+        this.arrayIndexCheckFunctionAddress = arrayIndexCheckFunctionAddress;
+    }
+}
@@ -0,0 +1,270 @@
+package rs.ac.bg.etf.pp1;
+
+import java.io.File;
+import java.nio.charset.Charset;
+
+/**
+ * Options that control a single compilation.
+ * <p>
+ * The default values correspond to the behavior of the command-line 'Compiler'.
+ */
+public class CompilerOptions {
+    /* Class fields */
+    private boolean dumpSymbolTable = true;
+    private boolean traceTokens = false;
+    private boolean mappedInput = false;
+    private boolean foldConstants = true;
+    private boolean optimizePeephole = true;
+    private boolean eliminateBoundsChecks = true;
+    private boolean inlineArrayGuards = false;
+    private boolean allocateLocalSlots = true;
+    private boolean promoteGlobals = true;
+    private int findUnrollFactor = 4;
+    private boolean precompiledHelpers = true;
+    private File cacheDirectory = null;
+    private long cacheSizeLimit = 64L * 1024 * 1024;
+    private File astSnapshotFile = null;
+    private boolean streaming = false;
+    private int semanticAnalysisThreads = 1;
+    private boolean collectMetrics = false;
+    private boolean writeMetricsReport = false;
+
+    /* Getters and setters */
+    public boolean isDumpSymbolTable() {
+        return dumpSymbolTable;
+    }
+
+    /**
+     * Whether the symbol table is printed to the standard output after semantic analysis.
+     */
+    public CompilerOptions setDumpSymbolTable(boolean dumpSymbolTable) {
+        this.dumpSymbolTable = dumpSymbolTable;
+        return this;
+    }
+
+    public boolean isTraceTokens() {
+        return traceTokens;
+    }
+
+    /**
+     * Whether the parser logs every token it receives from the lexer (including the text of keywords and operators).
+     */
+    public CompilerOptions setTraceTokens(boolean traceTokens) {
+        this.traceTokens = traceTokens;
+        return this;
+    }
+
+    public boolean isMappedInput() {
+        return mappedInput;
+    }
+
+    /**
+     * Whether source files are read through a memory mapping (as UTF-8) instead of a 'FileReader' (platform charset).
+     */
+    public CompilerOptions setMappedInput(boolean mappedInput) {
+        this.mappedInput = mappedInput;
+        return this;
+    }
+
+    public boolean isFoldConstants() {
+        return foldConstants;
+    }
+
+    /**
+     * Whether constant subexpressions are evaluated (and arithmetic identities simplified) during code generation.
+     */
+    public CompilerOptions setFoldConstants(boolean foldConstants) {
+        this.foldConstants = foldConstants;
+        return this;
+    }
+
+    public boolean isOptimizePeephole() {
+        return optimizePeephole;
+    }
+
+    /**
+     * Whether the peephole optimizer rewrites the generated code before the object file is written.
+     */
+    public CompilerOptions setOptimizePeephole(boolean optimizePeephole) {
+        this.optimizePeephole = optimizePeephole;
+        return this;
+    }
+
+    public boolean isEliminateBoundsChecks() {
+        return eliminateBoundsChecks;
+    }
+
+    /**
+     * Whether array checks that are proven unnecessary are omitted (if not set, every check is generated, e.g. for debugging).
+     */
+    public CompilerOptions setEliminateBoundsChecks(boolean eliminateBoundsChecks) {
+        this.eliminateBoundsChecks = eliminateBoundsChecks;
+        return this;
+    }
+
+    public boolean isInlineArrayGuards() {
+        return inlineArrayGuards;
+    }
+
+    /**
+     * Whether array accesses are checked by inline instructions (faster) instead of calls to the guard functions (smaller code).
+     */
+    public CompilerOptions setInlineArrayGuards(boolean inlineArrayGuards) {
+        this.inlineArrayGuards = inlineArrayGuards;
+        return this;
+    }
+
+    public boolean isAllocateLocalSlots() {
+        return allocateLocalSlots;
+    }
+
+    /**
+     * Whether locals with disjoint lifetimes share slots and the most accessed ones get slots 0-3 (see 'LocalSlotAllocator').
+     */
+    public CompilerOptions setAllocateLocalSlots(boolean allocateLocalSlots) {
+        this.allocateLocalSlots = allocateLocalSlots;
+        return this;
+    }
+
+    public boolean isPromoteGlobals() {
+        return promoteGlobals;
+    }
+
+    /**
+     * Whether a method accesses the globals it uses often enough through local copies (see 'GlobalPromoter').
+     */
+    public CompilerOptions setPromoteGlobals(boolean promoteGlobals) {
+        this.promoteGlobals = promoteGlobals;
+        return this;
+    }
+
+    public int getFindUnrollFactor() {
+        return findUnrollFactor;
+    }
+
+    /**
+     * Number of array elements compared in one iteration of the 'findAny' and 'findAll' loops (1 for no unrolling).
+     */
+    public CompilerOptions setFindUnrollFactor(int findUnrollFactor) {
+        if (findUnrollFactor < 1) throw new IllegalArgumentException("The unroll factor must be positive: " + findUnrollFactor);
+        this.findUnrollFactor = findUnrollFactor;
+        return this;
+    }
+
+    public boolean isPrecompiledHelpers() {
+        return precompiledHelpers;
+    }
+
+    /**
+     * Whether the code of the runtime helpers is copied from a snapshot shared by all compilations instead of being generated again.
+     */
+    public CompilerOptions setPrecompiledHelpers(boolean precompiledHelpers) {
+        this.precompiledHelpers = precompiledHelpers;
+        return this;
+    }
+
+    public File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * Directory of the compilation cache shared by the compiler processes, or null if compiled files are not cached
+     * (see 'CompilationCache'). The cache is not used when the syntax tree snapshot is written.
+     */
+    public CompilerOptions setCacheDirectory(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+        return this;
+    }
+
+    public long getCacheSizeLimit() {
+        return cacheSizeLimit;
+    }
+
+    /**
+     * Total size of the cache entries in bytes above which the least recently used entries are evicted.
+     */
+    public CompilerOptions setCacheSizeLimit(long cacheSizeLimit) {
+        if (cacheSizeLimit < 0) throw new IllegalArgumentException("The cache size limit must not be negative: " + cacheSizeLimit);
+        this.cacheSizeLimit = cacheSizeLimit;
+        return this;
+    }
+
+    public File getAstSnapshotFile() {
+        return astSnapshotFile;
+    }
+
+    /**
+     * File into which the analyzed syntax tree is written after semantic analysis (see 'AstSnapshot'), or null.
+     */
+    public CompilerOptions setAstSnapshotFile(File astSnapshotFile) {
+        this.astSnapshotFile = astSnapshotFile;
+        return this;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Whether every method is analyzed and generated as soon as it is parsed, and then released (see 'StreamingParser').
+     * Ignored if the syntax tree snapshot is written, as it needs the complete tree.
+     */
+    public CompilerOptions setStreaming(boolean streaming) {
+        this.streaming = streaming;
+        return this;
+    }
+
+    public int getSemanticAnalysisThreads() {
+        return semanticAnalysisThreads;
+    }
+
+    /**
+     * Number of threads that analyze the method bodies in parallel (see 'SemanticAnalyzer.analyzeInParallel'), 1 for the
+     * sequential analysis. Ignored by the streaming compilation, which analyzes every method as soon as it is parsed.
+     */
+    public CompilerOptions setSemanticAnalysisThreads(int semanticAnalysisThreads) {
+        if (semanticAnalysisThreads < 1) throw new IllegalArgumentException("The thread count must be positive: " + semanticAnalysisThreads);
+        this.semanticAnalysisThreads = semanticAnalysisThreads;
+        return this;
+    }
+
+    public boolean isCollectMetrics() {
+        return collectMetrics;
+    }
+
+    /**
+     * Whether the time and the allocated bytes of every phase are measured, besides the counters (see 'CompilationMetrics').
+     */
+    public CompilerOptions setCollectMetrics(boolean collectMetrics) {
+        this.collectMetrics = collectMetrics;
+        return this;
+    }
+
+    public boolean isWriteMetricsReport() {
+        return writeMetricsReport;
+    }
+
+    /**
+     * Whether the metrics of the compilation are written as JSON next to the object file ('program.obj' - 'program.metrics.json').
+     */
+    public CompilerOptions setWriteMetricsReport(boolean writeMetricsReport) {
+        this.writeMetricsReport = writeMetricsReport;
+        return this;
+    }
+
+    /**
+     * Returns the values of the options that affect the object file and the diagnostics of a compilation,
+     * including the charset used to decode source files (part of the key of the compilation cache).
+     */
+    public String getOutputFingerprint() {
+        return (mappedInput ? "mappedInput" : "charset=" + Charset.defaultCharset().name())
+                + ";foldConstants=" + foldConstants
+                + ";optimizePeephole=" + optimizePeephole
+                + ";eliminateBoundsChecks=" + eliminateBoundsChecks
+                + ";inlineArrayGuards=" + inlineArrayGuards
+                + ";allocateLocalSlots=" + allocateLocalSlots
+                + ";promoteGlobals=" + promoteGlobals
+                + ";findUnrollFactor=" + findUnrollFactor
+                + ";streaming=" + streaming;
+    }
+}
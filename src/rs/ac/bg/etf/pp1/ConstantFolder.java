@@ -0,0 +1,232 @@
+package rs.ac.bg.etf.pp1;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import rs.ac.bg.etf.pp1.ast.*;
+import rs.ac.bg.etf.pp1.util.CommonUtils;
+import rs.etf.pp1.symboltable.concepts.Obj;
+
+/**
+ * Evaluates constant subexpressions at compile time and simplifies arithmetic identities.
+ * <p>
+ * The folder traverses a (semantically checked) subtree bottom-up before code is generated for it and records:
+ * - constant nodes and their values (literals, named constants and operations on constant operands),
+ * - elided nodes, whose code must not be generated (operands of a constant node or of a simplified operation),
+ * - simplified nodes, whose instruction must not be generated ('x + 0', 'x - 0', 'x * 1', 'x / 1', '-(-x)').
+ * <p>
+ * Operations are evaluated with the 32-bit semantics of the MicroJava VM (the same as Java 'int' arithmetic).
+ * Division and remainder by a constant zero are not folded, so they still trap at runtime. 'x * 0' is only
+ * folded when 'x' has no side effects (it contains no array accesses, no array allocations, and no divisions or
+ * remainders whose divisor is not a known non-zero constant, as they may trap with a division by zero).
+ */
+public class ConstantFolder extends VisitorAdaptor {
+    /* Class fields */
+    private final Map<SyntaxNode, Integer> constants = new IdentityHashMap<>();
+    private final Set<SyntaxNode> elided = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<SyntaxNode> simplified = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<SyntaxNode> impure = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Forgets the results for the previous subtree and folds the expressions in the given subtree.
+     */
+    public void fold(SyntaxNode node) {
+        constants.clear();
+        elided.clear();
+        simplified.clear();
+        impure.clear();
+
+        node.traverseBottomUp(this);
+    }
+
+    /* ---------> Productions related to Expr, Term, Factor <--------- */
+
+    @Override
+    public void visit(ExprAddOp addExpr) {
+        Expr left = addExpr.getExpr();
+        Term right = addExpr.getTerm();
+        propagateImpurity(addExpr, left, right);
+
+        boolean plus = addExpr.getAddOperator().getClass() == PlusOp.class;
+        if (isConstant(left) && isConstant(right)) {
+            foldInto(addExpr, plus ? getValue(left) + getValue(right) : getValue(left) - getValue(right), left, right);
+        } else if (isConstantEqualTo(right, 0)) {
+            // x + 0, x - 0
+            simplify(addExpr, right);
+        } else if (plus && isConstantEqualTo(left, 0)) {
+            // 0 + x
+            simplify(addExpr, left);
+        }
+    }
+
+    @Override
+    public void visit(ExprTermPositive termExpr) {
+        passThrough(termExpr, termExpr.getTerm());
+    }
+
+    @Override
+    public void visit(ExprTermNegative termExpr) {
+        Term term = termExpr.getTerm();
+        propagateImpurity(termExpr, term);
+
+        if (isConstant(term)) {
+            foldInto(termExpr, -getValue(term), term);
+            return;
+        }
+
+        // -(-x): both negations are dropped (unless the inner one has already been dropped as a part of another pair)
+        ExprTermNegative inner = findParenthesizedNegation(term);
+        if (inner != null && !simplified.contains(inner)) {
+            simplified.add(inner);
+            simplified.add(termExpr);
+        }
+    }
+
+    @Override
+    public void visit(TermMulOp mulTerm) {
+        Term left = mulTerm.getTerm();
+        Factor right = mulTerm.getFactor();
+        propagateImpurity(mulTerm, left, right);
+
+        Class<?> operator = mulTerm.getMulOperator().getClass();
+        if (operator != MulOp.class && !(isConstant(right) && getValue(right) != 0)) {
+            // A division or a remainder that may trap must not be dropped as the operand of 'x * 0'
+            impure.add(mulTerm);
+        }
+
+        if (isConstant(left) && isConstant(right)) {
+            int a = getValue(left), b = getValue(right);
+            if (operator == MulOp.class) foldInto(mulTerm, a * b, left, right);
+            else if (b != 0) foldInto(mulTerm, operator == DivideOp.class ? a / b : a % b, left, right);
+        } else if (operator == MulOp.class) {
+            if (isConstantEqualTo(right, 1)) simplify(mulTerm, right);                          // x * 1
+            else if (isConstantEqualTo(left, 1)) simplify(mulTerm, left);                       // 1 * x
+            else if (isConstantEqualTo(right, 0) && !impure.contains(left)) foldInto(mulTerm, 0, left, right);  // x * 0
+            else if (isConstantEqualTo(left, 0) && !impure.contains(right)) foldInto(mulTerm, 0, left, right);  // 0 * x
+        } else if (operator == DivideOp.class && isConstantEqualTo(right, 1)) {
+            // x / 1
+            simplify(mulTerm, right);
+        }
+    }
+
+    @Override
+    public void visit(TermSingleFactor term) {
+        passThrough(term, term.getFactor());
+    }
+
+    @Override
+    public void visit(FactorVar factor) {
+        Designator designator = factor.getDesignator();
+
+        if (designator.getDesignatorArrayIndex().getClass() == ArrayIndex.class) {
+            // Array accesses are checked at runtime
+            impure.add(factor);
+        } else if (designator.obj.getKind() == Obj.Con) {
+            constants.put(factor, designator.obj.getAdr());
+        }
+    }
+
+    @Override
+    public void visit(FactorConst factor) {
+        constants.put(factor, CommonUtils.getConstValue(factor.getConst()));
+    }
+
+    @Override
+    public void visit(FactorNewArray factorNewArray) {
+        impure.add(factorNewArray);
+    }
+
+    @Override
+    public void visit(FactorExpression factorBracketExpression) {
+        passThrough(factorBracketExpression, factorBracketExpression.getExpr());
+    }
+
+    /* Utility methods */
+    public boolean isConstant(SyntaxNode node) {
+        return constants.containsKey(node);
+    }
+
+    public int getValue(SyntaxNode node) {
+        return constants.get(node);
+    }
+
+    public boolean isElided(SyntaxNode node) {
+        return elided.contains(node);
+    }
+
+    public boolean isSimplified(SyntaxNode node) {
+        return simplified.contains(node);
+    }
+
+    private boolean isConstantEqualTo(SyntaxNode node, int value) {
+        return isConstant(node) && getValue(node) == value;
+    }
+
+    private void passThrough(SyntaxNode node, SyntaxNode operand) {
+        propagateImpurity(node, operand);
+        if (isConstant(operand)) foldInto(node, getValue(operand), operand);
+    }
+
+    private void propagateImpurity(SyntaxNode node, SyntaxNode... operands) {
+        for (SyntaxNode operand : operands) {
+            if (impure.contains(operand)) impure.add(node);
+        }
+    }
+
+    /**
+     * Makes 'node' a constant; the code of its operands (and of everything below them) is no longer generated.
+     */
+    private void foldInto(SyntaxNode node, int value, SyntaxNode... operands) {
+        constants.put(node, value);
+        for (SyntaxNode operand : operands) {
+            elide(operand);
+        }
+    }
+
+    /**
+     * Drops the instruction of 'node' together with its constant operand.
+     */
+    private void simplify(SyntaxNode node, SyntaxNode constantOperand) {
+        simplified.add(node);
+        elided.add(constantOperand);
+    }
+
+    /**
+     * Elides the whole subtree of an operand. Subtrees of elided and constant nodes are already elided.
+     */
+    private void elide(SyntaxNode node) {
+        if (!elided.add(node) || isConstant(node)) return;
+
+        if (node instanceof ExprAddOp) {
+            elide(((ExprAddOp) node).getExpr());
+            elide(((ExprAddOp) node).getTerm());
+        } else if (node instanceof ExprTermPositive) {
+            elide(((ExprTermPositive) node).getTerm());
+        } else if (node instanceof ExprTermNegative) {
+            elide(((ExprTermNegative) node).getTerm());
+        } else if (node instanceof TermMulOp) {
+            elide(((TermMulOp) node).getTerm());
+            elide(((TermMulOp) node).getFactor());
+        } else if (node instanceof TermSingleFactor) {
+            elide(((TermSingleFactor) node).getFactor());
+        } else if (node instanceof FactorExpression) {
+            elide(((FactorExpression) node).getExpr());
+        }
+    }
+
+    /**
+     * Returns the negation 'N' if 'term' is of the form '(N)', '((N))', ..., or null otherwise.
+     */
+    private static ExprTermNegative findParenthesizedNegation(Term term) {
+        while (term instanceof TermSingleFactor && ((TermSingleFactor) term).getFactor() instanceof FactorExpression) {
+            Expr expr = ((FactorExpression) ((TermSingleFactor) term).getFactor()).getExpr();
+
+            if (expr instanceof ExprTermNegative) return (ExprTermNegative) expr;
+            if (!(expr instanceof ExprTermPositive)) return null;
+            term = ((ExprTermPositive) expr).getTerm();
+        }
+        return null;
+    }
+}
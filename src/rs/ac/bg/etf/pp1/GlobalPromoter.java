@@ -0,0 +1,174 @@
+package rs.ac.bg.etf.pp1;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import rs.ac.bg.etf.pp1.ast.*;
+import rs.etf.pp1.symboltable.concepts.Obj;
+
+/**
+ * Selects the global variables that a method accesses through a local copy instead of 'getstatic'/'putstatic'.
+ * <p>
+ * A promoted global is loaded into its local slot when the method is entered (unless the method writes it before
+ * reading it) and stored back before the method exits (if the method writes it). This is safe in every method:
+ * MicroJava methods cannot call other methods, the runtime helpers do not access global variables, and a method
+ * has a single exit ('return' generates no code), while a trap ends the whole program.
+ * <p>
+ * A global is promoted if it makes the method smaller, assuming the 2-byte 'load'/'store' for its slot
+ * (the slot allocator may give it one of the 1-byte forms):
+ * - every access saves a byte ('getstatic'/'putstatic' take 3 bytes),
+ * - the load on entry and the store on exit cost 5 bytes each,
+ * - an increment or a decrement saves another 3 bytes if the peephole optimizer rewrites it into 'inc'.
+ * So a global that is only read (or only written) needs at least 6 accesses, and one that is read and written needs 11,
+ * apart from the increments. The globals with the largest savings are promoted first, up to the size of the frame.
+ */
+public class GlobalPromoter extends VariableAccessVisitor {
+    private static final int MAX_FRAME_SIZE = 255;
+    private static final int ACCESS_BYTES_SAVED = 1;
+    private static final int TRANSFER_BYTES = 5;
+    private static final int INC_BYTES_SAVED = 3;
+
+    /**
+     * A global variable accessed through a local variable in the current method.
+     */
+    public static final class PromotedGlobal {
+        private final Obj global;
+        private final Obj local;
+        private final boolean loadedOnEntry, storedOnExit;
+
+        PromotedGlobal(Obj global, boolean loadedOnEntry, boolean storedOnExit) {
+            this.global = global;
+            this.local = new Obj(Obj.Var, global.getName(), global.getType(), 0, 1);
+            this.loadedOnEntry = loadedOnEntry;
+            this.storedOnExit = storedOnExit;
+        }
+
+        public Obj getGlobal() {
+            return global;
+        }
+
+        public Obj getLocal() {
+            return local;
+        }
+
+        public boolean isLoadedOnEntry() {
+            return loadedOnEntry;
+        }
+
+        public boolean isStoredOnExit() {
+            return storedOnExit;
+        }
+    }
+
+    /**
+     * Accesses of a global variable in the current method.
+     */
+    private static final class Accesses {
+        int count = 0;
+        int incrementCount = 0;
+        boolean readFirst = false;
+        boolean written = false;
+    }
+
+    /* Class fields */
+    private final boolean incrementsRewritten;
+    private final Map<Obj, Accesses> accesses = new LinkedHashMap<>();
+    private final Map<Obj, Obj> promotedLocals = new IdentityHashMap<>();
+
+    // Statistics for the whole compilation
+    private int promotedCount, promotedAccessCount, methodCount;
+
+    /**
+     * @param incrementsRewritten Whether the peephole optimizer rewrites the increments of locals into 'inc'.
+     */
+    public GlobalPromoter(ConstantFolder folder, boolean incrementsRewritten) {
+        super(folder);
+        this.incrementsRewritten = incrementsRewritten;
+    }
+
+    /**
+     * Forgets the globals promoted in the previous method and selects the ones to promote in the given method.
+     *
+     * @return Returns the promoted globals, in the order of their estimated savings.
+     */
+    public List<PromotedGlobal> promote(MethodDecl methodDecl, int localVarCount) {
+        accesses.clear();
+        promotedLocals.clear();
+
+        methodDecl.getStatementList().traverseBottomUp(this);
+
+        List<Obj> candidates = new ArrayList<>();
+        for (Map.Entry<Obj, Accesses> entry : accesses.entrySet()) {
+            if (getBytesSaved(entry.getValue()) > 0) candidates.add(entry.getKey());
+        }
+        // A stable sort: globals with the same savings stay in the order of their first access
+        candidates.sort((a, b) -> Integer.compare(getBytesSaved(accesses.get(b)), getBytesSaved(accesses.get(a))));
+
+        List<PromotedGlobal> promoted = new ArrayList<>();
+        for (Obj global : candidates.subList(0, Math.max(0, Math.min(candidates.size(), MAX_FRAME_SIZE - localVarCount)))) {
+            Accesses globalAccesses = accesses.get(global);
+            PromotedGlobal promotedGlobal = new PromotedGlobal(global, globalAccesses.readFirst, globalAccesses.written);
+            promoted.add(promotedGlobal);
+            promotedLocals.put(global, promotedGlobal.getLocal());
+
+            promotedAccessCount += globalAccesses.count;
+        }
+
+        promotedCount += promoted.size();
+        if (!promoted.isEmpty()) methodCount++;
+        return promoted.isEmpty() ? Collections.emptyList() : promoted;
+    }
+
+    /**
+     * Returns the local variable through which the given variable is accessed in the current method (the object itself if it is not promoted).
+     */
+    public Obj getVariable(Obj obj) {
+        Obj local = promotedLocals.get(obj);
+        return local != null ? local : obj;
+    }
+
+    @Override
+    protected void access(Obj obj, boolean store) {
+        if (obj.getKind() != Obj.Var || obj.getLevel() != 0) return;
+
+        Accesses globalAccesses = accesses.computeIfAbsent(obj, o -> new Accesses());
+        if (globalAccesses.count == 0) globalAccesses.readFirst = !store;
+        globalAccesses.count++;
+        globalAccesses.written |= store;
+    }
+
+    @Override
+    public void visit(DesignatorInc designatorInc) {
+        super.visit(designatorInc);
+        countIncrement(designatorInc.getDesignator().obj);
+    }
+
+    @Override
+    public void visit(DesignatorDec designatorDec) {
+        super.visit(designatorDec);
+        countIncrement(designatorDec.getDesignator().obj);
+    }
+
+    @Override
+    public String toString() {
+        return "Global variables promoted to locals: " + promotedCount + " in " + methodCount + " methods, replacing "
+                + promotedAccessCount + " getstatic/putstatic instructions";
+    }
+
+    /* Utility methods */
+    private void countIncrement(Obj obj) {
+        Accesses globalAccesses = accesses.get(obj);
+        if (globalAccesses != null) globalAccesses.incrementCount++;
+    }
+
+    private int getBytesSaved(Accesses globalAccesses) {
+        return globalAccesses.count * ACCESS_BYTES_SAVED
+                - (globalAccesses.readFirst ? TRANSFER_BYTES : 0)
+                - (globalAccesses.written ? TRANSFER_BYTES : 0)
+                + (incrementsRewritten ? globalAccesses.incrementCount * INC_BYTES_SAVED : 0);
+    }
+}
@@ -0,0 +1,168 @@
+package rs.ac.bg.etf.pp1;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import rs.ac.bg.etf.pp1.GlobalPromoter.PromotedGlobal;
+import rs.ac.bg.etf.pp1.ast.*;
+import rs.etf.pp1.symboltable.concepts.Obj;
+
+/**
+ * Assigns the slots of the local variables of a method in its activation record (the addresses of their object nodes).
+ * <p>
+ * Without the allocator, the locals get the slots in the order of their declaration, so the first four declared ones
+ * are accessed with the 1-byte 'load_n'/'store_n' instructions, whichever they are. The allocator:
+ * - records every load and store of a local in the order in which the code generator emits them (see 'VariableAccessVisitor'),
+ * - computes the live interval of every local, from its first store to its last access (from the start of the method
+ * if it is read before it is written, as the value in its slot is then observed),
+ * - lets the locals with disjoint intervals share a slot (greedy coloring by the start of the intervals, optimal for
+ * interval graphs), while locals that are never accessed get no slot at all,
+ * - numbers the slots by their number of accesses, so the most frequently accessed ones are 0 to 3.
+ * <p>
+ * Every access would be weighted by the depth of its loop nesting, but MicroJava has no loops, so every access counts once.
+ * The globals promoted to locals (see 'GlobalPromoter') get slots like the declared locals; their load on entry
+ * and their store on exit are accesses at the start and at the end of the method.
+ */
+public class LocalSlotAllocator extends VariableAccessVisitor {
+    /**
+     * Accesses of a local variable and its live interval (positions in the sequence of accesses of the method).
+     */
+    private static final class Local {
+        final Obj obj;
+        final int declaredSlot;
+        int start = -1, end = -1;
+        int accessCount = 0;
+
+        Local(Obj obj, int declaredSlot) {
+            this.obj = obj;
+            this.declaredSlot = declaredSlot;
+        }
+    }
+
+    /* Class fields */
+    private final Map<Obj, Local> locals = new IdentityHashMap<>();
+    private int position;
+
+    // Statistics for the whole compilation
+    private int declaredFrameSlots, allocatedFrameSlots;
+    private int accessCount, declaredShortAccesses, allocatedShortAccesses;
+
+    public LocalSlotAllocator(ConstantFolder folder) {
+        super(folder);
+    }
+
+    /**
+     * Assigns the slots of the local variables of the given method and of the globals promoted in it
+     * (the results of the constant folder must be those of the method).
+     *
+     * @return Returns the number of slots of the activation record.
+     */
+    public int allocate(MethodDecl methodDecl, List<PromotedGlobal> promotedGlobals) {
+        locals.clear();
+        position = 0;
+
+        // The declared slots follow the declarations, not the addresses, which may have been assigned by a previous allocation
+        Map<String, Obj> localsByName = new HashMap<>();
+        for (Obj local : methodDecl.getMethodTypeName().obj.getLocalSymbols()) {
+            localsByName.put(local.getName(), local);
+        }
+        List<Local> declaredLocals = new ArrayList<>();
+        methodDecl.getMethodVarDeclList().traverseBottomUp(new VisitorAdaptor() {
+            @Override
+            public void visit(VarDesignatorNoError varDesignator) {
+                declare(varDesignator.getVarName());
+            }
+
+            @Override
+            public void visit(LastVarDesignatorNoError varDesignator) {
+                declare(varDesignator.getVarName());
+            }
+
+            private void declare(String name) {
+                Local local = new Local(localsByName.get(name), declaredLocals.size());
+                declaredLocals.add(local);
+                locals.put(local.obj, local);
+            }
+        });
+
+        // The promoted globals are accessed through the syntax tree objects of the globals
+        for (PromotedGlobal promotedGlobal : promotedGlobals) {
+            Local local = new Local(promotedGlobal.getLocal(), declaredLocals.size());
+            declaredLocals.add(local);
+            locals.put(promotedGlobal.getGlobal(), local);
+            if (promotedGlobal.isLoadedOnEntry()) access(promotedGlobal.getGlobal(), true);
+        }
+
+        methodDecl.getStatementList().traverseBottomUp(this);
+
+        for (PromotedGlobal promotedGlobal : promotedGlobals) {
+            if (promotedGlobal.isStoredOnExit()) access(promotedGlobal.getGlobal(), false);
+        }
+
+        // Color the intervals in the order of their start: a slot can be reused once the interval of its last local has ended
+        List<Local> usedLocals = new ArrayList<>();
+        for (Local local : declaredLocals) {
+            if (local.accessCount > 0) usedLocals.add(local);
+        }
+        usedLocals.sort((a, b) -> Integer.compare(a.start, b.start));
+
+        List<Integer> slotEnds = new ArrayList<>();
+        List<Integer> slotAccessCounts = new ArrayList<>();
+        Map<Local, Integer> colors = new IdentityHashMap<>();
+        for (Local local : usedLocals) {
+            int color = 0;
+            while (color < slotEnds.size() && slotEnds.get(color) >= local.start) color++;
+            if (color == slotEnds.size()) {
+                slotEnds.add(local.end);
+                slotAccessCounts.add(local.accessCount);
+            } else {
+                slotEnds.set(color, local.end);
+                slotAccessCounts.set(color, slotAccessCounts.get(color) + local.accessCount);
+            }
+            colors.put(local, color);
+        }
+
+        // The most frequently accessed slots come first (the earlier slot on a tie, so the result is deterministic)
+        List<Integer> slotOrder = new ArrayList<>();
+        for (int color = 0; color < slotEnds.size(); color++) slotOrder.add(color);
+        slotOrder.sort((a, b) -> slotAccessCounts.get(a).equals(slotAccessCounts.get(b))
+                ? Integer.compare(a, b) : Integer.compare(slotAccessCounts.get(b), slotAccessCounts.get(a)));
+        int[] slots = new int[slotEnds.size()];
+        for (int slot = 0; slot < slotOrder.size(); slot++) slots[slotOrder.get(slot)] = slot;
+
+        for (Local local : usedLocals) {
+            int slot = slots[colors.get(local)];
+            local.obj.setAdr(slot);
+
+            accessCount += local.accessCount;
+            if (local.declaredSlot <= 3) declaredShortAccesses += local.accessCount;
+            if (slot <= 3) allocatedShortAccesses += local.accessCount;
+        }
+
+        declaredFrameSlots += declaredLocals.size();
+        allocatedFrameSlots += slotEnds.size();
+        return slotEnds.size();
+    }
+
+    @Override
+    public String toString() {
+        return "Local slots: " + allocatedFrameSlots + " frame slots instead of " + declaredFrameSlots + ", "
+                + allocatedShortAccesses + " of " + accessCount + " local variable accesses in the short form instead of " + declaredShortAccesses;
+    }
+
+    @Override
+    protected void access(Obj obj, boolean store) {
+        int accessPosition = position++;
+
+        // Array elements and global variables (unless promoted) are not in the activation record
+        Local local = locals.get(obj);
+        if (local == null) return;
+
+        if (local.accessCount == 0 && store) local.start = accessPosition;
+        local.end = accessPosition;
+        local.accessCount++;
+    }
+}
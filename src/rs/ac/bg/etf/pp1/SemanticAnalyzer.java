@@ -1,7 +1,12 @@
 package rs.ac.bg.etf.pp1;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.apache.log4j.Logger;
 
@@ -9,9 +14,15 @@ import rs.ac.bg.etf.pp1.ast.*;
 import rs.etf.pp1.symboltable.*;
 import rs.etf.pp1.symboltable.concepts.*;
 import rs.ac.bg.etf.pp1.util.CommonUtils;
+import rs.ac.bg.etf.pp1.util.CompilationMetrics;
+import rs.ac.bg.etf.pp1.util.NameTable;
+import rs.ac.bg.etf.pp1.util.SymbolTable;
 
 public class SemanticAnalyzer extends VisitorAdaptor {
     /* Class fields */
+    private final CompilationContext context;
+    private final SymbolTable symbolTable;
+
     private Obj currentMethod = null;
 
     private final List<ConstAssignment> currentConstAssignments = new ArrayList<>();
@@ -27,22 +38,178 @@ public class SemanticAnalyzer extends VisitorAdaptor {
     private static final Logger log = Logger.getLogger(SemanticAnalyzer.class);
     private boolean errorDetected = false;
 
-    public void report_error(String message, SyntaxNode info) {
-        errorDetected = true;
+    // Messages of a method analyzed in parallel, reported in source order after all methods (null if reported directly)
+    private List<DeferredMessage> deferredMessages = null;
+
+    // Below this number of methods a task analyzes them itself instead of splitting the work further
+    private static final int SEQUENTIAL_THRESHOLD = 8;
+
+    public SemanticAnalyzer(CompilationContext context) {
+        this(context, context.getSymbolTable(), null);
+    }
+
+    private SemanticAnalyzer(CompilationContext context, SymbolTable symbolTable, List<DeferredMessage> deferredMessages) {
+        this.context = context;
+        this.symbolTable = symbolTable;
+        this.deferredMessages = deferredMessages;
+    }
 
+    public void report_error(String message, SyntaxNode info) {
         StringBuilder msg = new StringBuilder("Semantic error: " + message);
         int line = (info == null) ? 0 : info.getLine();
         if (line != 0)
             msg.append(" : at line ").append(line);
-        log.error(msg.toString());
+        error(msg.toString());
     }
 
     public void report_info(String message, SyntaxNode info) {
+        if (!log.isInfoEnabled()) return;
+
         StringBuilder msg = new StringBuilder(message);
         int line = (info == null) ? 0 : info.getLine();
         if (line != 0)
             msg.append(" : at line ").append(line);
-        log.info(msg.toString());
+        info(msg.toString());
+    }
+
+    private void error(String message) {
+        errorDetected = true;
+        if (deferredMessages != null) {
+            deferredMessages.add(new DeferredMessage(true, message));
+            return;
+        }
+
+        context.getMetrics().addSemanticError();
+        log.error(message);
+        context.addDiagnostic(message);
+    }
+
+    private void info(String message) {
+        if (deferredMessages != null) deferredMessages.add(new DeferredMessage(false, message));
+        else log.info(message);
+    }
+
+    /**
+     * An error or an informational message of a method analyzed in parallel.
+     */
+    private static class DeferredMessage {
+        final boolean error;
+        final String text;
+
+        DeferredMessage(boolean error, String text) {
+            this.error = error;
+            this.text = text;
+        }
+    }
+
+    /* ---------> Parallel analysis of the method bodies <--------- */
+
+    /**
+     * Analyzes the program like 'program.traverseBottomUp(this)', but with the method bodies analyzed on the pool:
+     * - the program name and the global declarations are analyzed first, and then every method is declared in the global scope
+     *   (in source order, together with its return type), which is not modified any more until all bodies are analyzed,
+     * - every method body is analyzed by its own analyzer, with a private scope for its local variables (see 'SymbolTable.fork');
+     *   the methods declared after it are hidden from it, as they are from the sequential analysis,
+     * - the messages of the methods are reported in source order once all of them are analyzed,
+     *   so the diagnostics are the same as those of the sequential analysis.
+     */
+    public void analyzeInParallel(Program program, ForkJoinPool pool) {
+        program.getProgName().traverseBottomUp(this);
+        program.getDeclList().traverseBottomUp(this);
+
+        // The method list is left-recursive, so its last method is the outermost one
+        List<MethodDecl> methods = new ArrayList<>();
+        MethodDeclList methodList = program.getMethodDeclList();
+        while (methodList instanceof MethodDeclarations) {
+            methods.add(((MethodDeclarations) methodList).getMethodDecl());
+            methodList = ((MethodDeclarations) methodList).getMethodDeclList();
+        }
+        Collections.reverse(methods);
+
+        // Declare the methods, collecting the messages of every method separately
+        Map<Obj, Integer> methodIndexes = new IdentityHashMap<>();
+        List<List<DeferredMessage>> methodMessages = new ArrayList<>(methods.size());
+        for (int i = 0; i < methods.size(); i++) {
+            MethodTypeName methodTypeName = methods.get(i).getMethodTypeName();
+            deferredMessages = new ArrayList<>();
+            methodTypeName.getMethodType().traverseBottomUp(this);
+            declareMethod(methodTypeName);
+            if (methodTypeName.obj != Tab.noObj) methodIndexes.put(methodTypeName.obj, i);
+            methodMessages.add(deferredMessages);
+        }
+        deferredMessages = null;
+
+        SemanticAnalyzer[] analyzers = new SemanticAnalyzer[methods.size()];
+        CompilationMetrics[] metrics = new CompilationMetrics[methods.size()];
+        pool.invoke(new MethodAnalysisTask(methods, methodIndexes, methodMessages, analyzers, metrics, 0, methods.size()));
+
+        for (int i = 0; i < methods.size(); i++) {
+            for (DeferredMessage message : methodMessages.get(i)) {
+                if (message.error) error(message.text);
+                else info(message.text);
+            }
+            mainFound |= analyzers[i].mainFound;
+            context.getMetrics().addSymbolTableCounters(metrics[i]);
+        }
+
+        program.accept(this);
+    }
+
+    /**
+     * Analyzes the bodies of the methods in [from, to), each with its own analyzer and forked symbol table.
+     */
+    private class MethodAnalysisTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<MethodDecl> methods;
+        private final Map<Obj, Integer> methodIndexes;
+        private final List<List<DeferredMessage>> methodMessages;
+        private final SemanticAnalyzer[] analyzers;
+        private final CompilationMetrics[] metrics;
+        private final int from, to;
+
+        MethodAnalysisTask(List<MethodDecl> methods, Map<Obj, Integer> methodIndexes, List<List<DeferredMessage>> methodMessages,
+                           SemanticAnalyzer[] analyzers, CompilationMetrics[] metrics, int from, int to) {
+            this.methods = methods;
+            this.methodIndexes = methodIndexes;
+            this.methodMessages = methodMessages;
+            this.analyzers = analyzers;
+            this.metrics = metrics;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    int methodIndex = i;
+                    metrics[i] = new CompilationMetrics(false);
+                    SymbolTable methodSymbolTable = symbolTable.fork(metrics[i], obj -> {
+                        if (obj.getKind() != Obj.Meth) return true;
+                        Integer index = methodIndexes.get(obj);
+                        return index == null || index <= methodIndex;
+                    });
+                    analyzers[i] = new SemanticAnalyzer(context, methodSymbolTable, methodMessages.get(i));
+                    analyzers[i].analyzeMethodBody(methods.get(i));
+                }
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new MethodAnalysisTask(methods, methodIndexes, methodMessages, analyzers, metrics, from, middle),
+                    new MethodAnalysisTask(methods, methodIndexes, methodMessages, analyzers, metrics, middle, to));
+        }
+    }
+
+    /**
+     * Analyzes a method declared by 'declareMethod' (the nodes are visited in the same order as by 'traverseBottomUp').
+     */
+    private void analyzeMethodBody(MethodDecl methodDecl) {
+        openMethodScope(methodDecl.getMethodTypeName());
+        methodDecl.getMethodVarDeclList().traverseBottomUp(this);
+        methodDecl.getStatementList().traverseBottomUp(this);
+        methodDecl.accept(this);
     }
 
     /* ---------> 0. Productions related to the program <--------- */
@@ -57,8 +224,8 @@ public class SemanticAnalyzer extends VisitorAdaptor {
     @Override
     public void visit(ProgName progName) {
         // Insert the program object node into the symbol table and open a new scope
-        progName.obj = Tab.insert(Obj.Prog, progName.getName(), Tab.noType);
-        Tab.openScope();
+        progName.obj = symbolTable.insert(Obj.Prog, progName.getName(), Tab.noType);
+        symbolTable.openScope();
     }
 
     /**
@@ -74,13 +241,13 @@ public class SemanticAnalyzer extends VisitorAdaptor {
         if (!mainFound) {
             report_error("Error: Method 'void main() { ... }' is not defined!", null);
         }
-        this.numberOfVariables = Tab.currentScope.getnVars();
+        this.numberOfVariables = symbolTable.currentScope().getnVars();
 
         // Chain local symbols to the object node for this program
-        Tab.chainLocalSymbols(program.getProgName().obj);
+        symbolTable.chainLocalSymbols(program.getProgName().obj);
 
         // Close the scope
-        Tab.closeScope();
+        symbolTable.closeScope();
         report_info("Program finished. Scope closed.", null);
     }
 
@@ -100,14 +267,14 @@ public class SemanticAnalyzer extends VisitorAdaptor {
             int initializerValue = CommonUtils.getConstValue(constAssignment.getConst());
 
             // Check if the name already exists in the symbol table
-            if (Tab.find(constAssignment.getName()) != Tab.noObj) {
+            if (symbolTable.find(constAssignment.getName()) != Tab.noObj) {
                 report_error("Constant " + constAssignment.getName() + " is already declared in the current scope", constDecl);
                 constAssignment.obj = Tab.noObj;
             } else if (!initializerType.assignableTo(constDecl.getType().struct)) { // Compare the type of the constant and the initializer
                 report_error("Constant " + constAssignment.getName() + " is not of the same type as the initializer", constDecl);
                 constAssignment.obj = Tab.noObj;
             } else { // Write the constant into the symbol table
-                constAssignment.obj = CommonUtils.addConstToSymTable(constAssignment.getName(), constDecl.getType().struct, initializerValue);
+                constAssignment.obj = CommonUtils.addConstToSymTable(context, constAssignment.getName(), constDecl.getType().struct, initializerValue);
                 report_info("Constant declared: " + constAssignment.getName(), constAssignment);
             }
         }
@@ -163,14 +330,14 @@ public class SemanticAnalyzer extends VisitorAdaptor {
 
     private void addVarToSymTable(String varName, boolean isArray, VarDecl varDecl) {
         // Check if the variable name already exists in the same scope
-        if (Tab.find(varName) != Tab.noObj && Tab.currentScope().findSymbol(varName) != null) {
+        if (symbolTable.findInCurrentScope(varName) != null) {
             report_error("Variable " + varName + " is already declared in the current scope", varDecl);
         } else {
             // Insert variable into symbol table (consider whether it's an array)
             if (isArray) {
-                Tab.insert(Obj.Var, varName, CommonUtils.getArrayType(varDecl.getType().struct));
+                symbolTable.insert(Obj.Var, varName, symbolTable.arrayType(varDecl.getType().struct));
             } else {
-                Tab.insert(Obj.Var, varName, varDecl.getType().struct);
+                symbolTable.insert(Obj.Var, varName, varDecl.getType().struct);
             }
             report_info("Variable declared: " + varName, varDecl);
         }
@@ -200,7 +367,7 @@ public class SemanticAnalyzer extends VisitorAdaptor {
      */
     @Override
     public void visit(Type type) {
-        Obj typeObj = Tab.find(type.getTypeName());
+        Obj typeObj = symbolTable.find(type.getTypeName());
 
         // Check if the given type name exists in the symbol table
         if (typeObj == Tab.noObj) {
@@ -222,38 +389,41 @@ public class SemanticAnalyzer extends VisitorAdaptor {
      * - Open a scope for the method.
      * <p>
      * At the end of the declaration (in MethodDecl.visit method) we should:
+     * - record the number of local variables of the method,
      * - chain symbols (that's why we remember the object node of this method here)
      * - close the scope of this method.
      */
     @Override
     public void visit(MethodTypeName methodTypeName) {
-        // Check if the same name already exists in the symbol table
-        if (Tab.find(methodTypeName.getName()) != Tab.noObj) { // It does
-            // Check if there's already a method and an object with the same name in the same scope
-            if (Tab.currentScope().findSymbol(methodTypeName.getName()) != null) {
-                report_error("Error at " + methodTypeName.getLine()
-                        + ": Method name " + methodTypeName.getName()
-                        + " is already declared in the same scope!", null
-                );
-
-                // Create the method object node and open the scope
-                currentMethod = methodTypeName.obj = Tab.noObj;
-                Tab.openScope();
-                return;
-            }
+        declareMethod(methodTypeName);
+        openMethodScope(methodTypeName);
+    }
+
+    private void declareMethod(MethodTypeName methodTypeName) {
+        // Check if there's already a method or an object with the same name in the same scope
+        if (symbolTable.findInCurrentScope(methodTypeName.getName()) != null) {
+            report_error("Error at " + methodTypeName.getLine()
+                    + ": Method name " + methodTypeName.getName()
+                    + " is already declared in the same scope!", null
+            );
+            methodTypeName.obj = Tab.noObj;
+            return;
         }
 
-        // Otherwise, create the method object node and open the scope
+        // Otherwise, create the method object node
         if (methodTypeName.getMethodType().getClass() == MethodReturnType.class) { // Type: int, char, bool
             Struct methodReturnType = ((MethodReturnType) methodTypeName.getMethodType()).getType().struct;
-            currentMethod = methodTypeName.obj = Tab.insert(Obj.Meth, methodTypeName.getName(), methodReturnType);
+            methodTypeName.obj = symbolTable.insert(Obj.Meth, methodTypeName.getName(), methodReturnType);
         } else { // Type: VOID
-            currentMethod = methodTypeName.obj = Tab.insert(Obj.Meth, methodTypeName.getName(), Tab.noType);
+            methodTypeName.obj = symbolTable.insert(Obj.Meth, methodTypeName.getName(), Tab.noType);
         }
+    }
 
+    private void openMethodScope(MethodTypeName methodTypeName) {
         // Open a scope for the method
-        Tab.openScope();
-        report_info("Function " + methodTypeName.getName() + " processing started", methodTypeName);
+        currentMethod = methodTypeName.obj;
+        symbolTable.openScope();
+        if (currentMethod != Tab.noObj) report_info("Function " + methodTypeName.getName() + " processing started", methodTypeName);
     }
 
     @Override
@@ -264,13 +434,19 @@ public class SemanticAnalyzer extends VisitorAdaptor {
         }
 
         // Check if it's a 'void main() { ... }' method. We don't consider 'void main(String[] args) { ... }'
-        if (currentMethod.getType() == Tab.noType && "main".equals(currentMethod.getName())) {
+        // (identifiers are interned by the lexer, so 'equals' usually succeeds at its reference check)
+        if (currentMethod.getType() == Tab.noType && NameTable.MAIN.equals(currentMethod.getName())) {
             mainFound = true;
         }
 
+        // Record the number of local variables (their slots are the addresses assigned by the method scope)
+        if (currentMethod != Tab.noObj) {
+            context.setLocalVarCount(currentMethod, symbolTable.currentScope().getnVars());
+        }
+
         // Chain local symbols (into the 'locals' field of the object node of the method) and close the scope
-        Tab.chainLocalSymbols(currentMethod);
-        Tab.closeScope();
+        symbolTable.chainLocalSymbols(currentMethod);
+        symbolTable.closeScope();
 
         currentMethod = null;
         returnFound = false;
@@ -396,7 +572,7 @@ public class SemanticAnalyzer extends VisitorAdaptor {
         Struct dstStruct = assignment.getDesignator().obj.getType();
 
         // Check contextual conditions for value assignment
-        if (!srcStruct.assignableTo(dstStruct)) {
+        if (!CommonUtils.isAssignable(srcStruct, dstStruct)) {
             report_error("Incompatible types in value assignment", assignment);
         }
     }
@@ -425,7 +601,7 @@ public class SemanticAnalyzer extends VisitorAdaptor {
         // Check if 'value' is of array elements type
         Struct valueType = assignmentValue.getExpr().struct;
         Struct arrayElemType = varNameType.getElemType();
-        if (!valueType.compatibleWith(arrayElemType)) {
+        if (!CommonUtils.isCompatible(valueType, arrayElemType)) {
             report_error("Array element type does not match the expression type", assignmentValue);
         }
     }
@@ -449,7 +625,7 @@ public class SemanticAnalyzer extends VisitorAdaptor {
         // Check if 'value' is of array elements type
         Struct valueType = assignmentValue.getExpr().struct;
         Struct arrayElemType = varNameType.getElemType();
-        if (!valueType.compatibleWith(arrayElemType)) {
+        if (!CommonUtils.isCompatible(valueType, arrayElemType)) {
             report_error("Array element type does not match the expression type", assignmentValue);
         }
     }
@@ -469,7 +645,7 @@ public class SemanticAnalyzer extends VisitorAdaptor {
         boolean isArray = designator.getDesignatorArrayIndex().getClass() == ArrayIndex.class;
 
         // Check if the given name (used in the expression) exists in the symbol table
-        if ((designator.obj = Tab.find(varName)) == Tab.noObj) {
+        if ((designator.obj = symbolTable.find(varName)) == Tab.noObj) {
             report_error("Name " + varName + " is not declared", null);
             return;
         }
@@ -501,11 +677,9 @@ public class SemanticAnalyzer extends VisitorAdaptor {
         // Preserve the object node address of the array itself (besides the element's in Designator.obj)
         Designator designator = (Designator) placeholder.getParent().getParent();
 
-        Obj arrayObj;
-        do {
-            arrayObj = Tab.find(designator.getName());
-            placeholder.obj = arrayObj;
-        } while (arrayObj.getType().getKind() != Struct.Array);
+        // A name that is not an array is reported when its Designator is visited
+        Obj arrayObj = symbolTable.find(designator.getName());
+        placeholder.obj = arrayObj.getType().getKind() == Struct.Array ? arrayObj : Tab.noObj;
     }
 
     /* ---------> 6. Productions related to Expr, Term, Factor, Const <--------- */
@@ -581,7 +755,7 @@ public class SemanticAnalyzer extends VisitorAdaptor {
             report_error("Array size must be of type int", factorNewArray);
             factorNewArray.struct = Tab.noType;
         } else {
-            factorNewArray.struct = CommonUtils.getArrayType(factorNewArray.getType().struct);
+            factorNewArray.struct = symbolTable.arrayType(factorNewArray.getType().struct);
         }
     }
 
@@ -0,0 +1,90 @@
+package rs.ac.bg.etf.pp1;
+
+import java.util.Stack;
+
+import java_cup.runtime.Symbol;
+import java_cup.runtime.lr_parser;
+
+import rs.ac.bg.etf.pp1.ast.*;
+import rs.ac.bg.etf.pp1.util.CompilationMetrics.Phase;
+
+/**
+ * Parser that analyzes every method and generates its code as soon as the method is reduced, and then releases its subtree,
+ * so that the memory used by a compilation depends on the largest method instead of on the size of the program.
+ * <p>
+ * An LR parser reduces the nodes in the same order in which 'traverseBottomUp' visits them, so the visitors see
+ * the nodes in the same order as in a compilation of the complete tree:
+ * - the program name and the global declarations are analyzed when the (empty) beginning of the method list is reduced,
+ * - every method is analyzed when it is reduced and, if no error has been found so far, its code is generated,
+ * - the program node finishes the analysis and generates the runtime helpers.
+ * <p>
+ * Only the program name and the global declarations remain in the syntax tree; its method list is null.
+ * The nodes discarded by the recovery from a syntax error may already have been analyzed, but no code is generated then.
+ * <p>
+ * The analysis and the code generation are measured as their own phases (see 'CompilationMetrics'), and the syntax tree nodes
+ * are counted as they are reduced (including the ones discarded by the recovery from a syntax error), as the complete tree
+ * cannot be traversed afterwards.
+ */
+public class StreamingParser extends MJParser {
+    /* Class fields */
+    private final SemanticAnalyzer semanticAnalyzer;
+    private final CodeGenerator codeGenerator;
+
+    private ProgName progName = null;
+    private DeclList declList = null;
+    private boolean programFinished = false;
+
+    public StreamingParser(Yylex lexer, SemanticAnalyzer semanticAnalyzer, CodeGenerator codeGenerator) {
+        super(lexer);
+        this.semanticAnalyzer = semanticAnalyzer;
+        this.codeGenerator = codeGenerator;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Symbol do_action(int actNum, lr_parser parser, Stack stack, int top) throws Exception {
+        Symbol result = super.do_action(actNum, parser, stack, top);
+        Object node = result.value;
+        if (metrics.isEnabled() && node instanceof SyntaxNode && !(node instanceof Program && programFinished)) metrics.addNodes(1);
+
+        if (node instanceof ProgName) {
+            progName = (ProgName) node;
+        } else if (node instanceof DeclList) { // The last one reduced is the complete list
+            declList = (DeclList) node;
+        } else if (node instanceof NoMethodDecl) { // All global declarations have been parsed
+            Phase phase = metrics.enterPhase(Phase.SEMANTIC_ANALYSIS);
+            if (progName != null) progName.traverseBottomUp(semanticAnalyzer);
+            if (declList != null) declList.traverseBottomUp(semanticAnalyzer);
+            metrics.enterPhase(phase);
+            result.value = null;
+        } else if (node instanceof MethodDecl) {
+            MethodDecl methodDecl = (MethodDecl) node;
+            Phase phase = metrics.enterPhase(Phase.SEMANTIC_ANALYSIS);
+            methodDecl.traverseBottomUp(semanticAnalyzer);
+            if (isCodeGenerated()) {
+                metrics.enterPhase(Phase.CODE_GENERATION);
+                methodDecl.traverseBottomUp(codeGenerator);
+            }
+            metrics.enterPhase(phase);
+
+            // Release the method (and the list node that would hold it)
+            result.value = null;
+        } else if (node instanceof MethodDeclarations) {
+            result.value = null;
+        } else if (node instanceof Program && !programFinished) { // The start production passes the same node on
+            programFinished = true;
+            Phase phase = metrics.enterPhase(Phase.SEMANTIC_ANALYSIS);
+            ((Program) node).accept(semanticAnalyzer);
+            if (isCodeGenerated()) {
+                metrics.enterPhase(Phase.CODE_GENERATION);
+                ((Program) node).accept(codeGenerator);
+            }
+            metrics.enterPhase(phase);
+        }
+        return result;
+    }
+
+    private boolean isCodeGenerated() {
+        return !errorDetected && semanticAnalyzer.semanticAnalysisPassed();
+    }
+}
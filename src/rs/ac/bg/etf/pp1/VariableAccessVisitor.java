@@ -0,0 +1,65 @@
+package rs.ac.bg.etf.pp1;
+
+import rs.ac.bg.etf.pp1.ast.*;
+import rs.etf.pp1.symboltable.concepts.Obj;
+
+/**
+ * Visitor of the loads and stores of variables in a method, in the order in which the code generator emits them
+ * (the bottom-up traversal visits the nodes in the order of execution, as MicroJava methods have no branches or loops).
+ * <p>
+ * The accessed objects are those of the syntax tree: local and global variables, and array elements ('Obj.Elem',
+ * whose array has been loaded by an earlier access). The loads of folded operands are not generated, so the method
+ * must be visited after the constant folding.
+ */
+public abstract class VariableAccessVisitor extends VisitorAdaptor {
+    /* Class fields */
+    private final ConstantFolder folder;
+
+    protected VariableAccessVisitor(ConstantFolder folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Called for every load ('store' false) and store of a variable, in the order of the generated code.
+     */
+    protected abstract void access(Obj obj, boolean store);
+
+    /* ---------> Accesses, in the order of the code generator <--------- */
+
+    @Override
+    public void visit(Designator designator) {
+        SyntaxNode parent = designator.getParent();
+        if (parent.getClass() == FactorVar.class && (folder.isConstant(parent) || folder.isElided(parent))) return;
+
+        if (parent.getClass() == AssignmentValueFindAny.class || parent.getClass() == AssignmentValueFindAll.class || parent.getClass() == FactorVar.class) {
+            access(designator.obj, false);
+        }
+    }
+
+    @Override
+    public void visit(ArrayIndexPlaceholder placeholder) {
+        access(placeholder.obj, false);
+    }
+
+    @Override
+    public void visit(DesignatorInc designatorInc) {
+        access(designatorInc.getDesignator().obj, false);
+        access(designatorInc.getDesignator().obj, true);
+    }
+
+    @Override
+    public void visit(DesignatorDec designatorDec) {
+        access(designatorDec.getDesignator().obj, false);
+        access(designatorDec.getDesignator().obj, true);
+    }
+
+    @Override
+    public void visit(Assignment assignment) {
+        access(assignment.getDesignator().obj, true);
+    }
+
+    @Override
+    public void visit(StatementRead statementRead) {
+        access(statementRead.getDesignator().obj, true);
+    }
+}
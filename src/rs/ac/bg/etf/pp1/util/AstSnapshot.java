@@ -0,0 +1,470 @@
+package rs.ac.bg.etf.pp1.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import rs.ac.bg.etf.pp1.ast.Program;
+import rs.ac.bg.etf.pp1.ast.SyntaxNode;
+import rs.etf.pp1.symboltable.Tab;
+import rs.etf.pp1.symboltable.concepts.Obj;
+import rs.etf.pp1.symboltable.concepts.Struct;
+import rs.etf.pp1.symboltable.structure.HashTableDataStructure;
+import rs.etf.pp1.symboltable.structure.SymbolDataStructure;
+
+/**
+ * Binary snapshot of an analyzed syntax tree: the tree with its 'obj' and 'struct' attributes, the graph of
+ * the referenced 'Obj' and 'Struct' nodes and the number of global variables. Code generation can run on a loaded
+ * snapshot without lexing, parsing and analyzing the program again (e.g. with other optimization options).
+ * <p>
+ * The syntax tree classes are generated from the grammar, so the nodes are written and rebuilt through reflection:
+ * the fields of a node are its constructor arguments (child nodes, identifiers and literal values) followed by
+ * its attributes. The layout of every node class is computed once and shared by all snapshots.
+ * <p>
+ * Format (integers are variable-length, strings are written once and then referenced by index):
+ * - the 'Struct' and 'Obj' tables, written in phases because the graph contains cycles (a method and its locals,
+ * a class and its members); the predefined structures and 'Tab.noObj' are not written, they are mapped back to
+ * the shared instances,
+ * - the nodes in preorder, each as its class and line followed by its fields.
+ */
+public class AstSnapshot {
+    /**
+     * The fields of a node class: the constructor arguments in their order, then the attributes.
+     */
+    private static class NodeLayout {
+        final Class<?> nodeClass;
+        final Constructor<?> constructor;
+        final Field[] arguments;
+        final Field[] attributes;
+
+        NodeLayout(Class<?> nodeClass) {
+            this.nodeClass = nodeClass;
+
+            List<Field> argumentList = new ArrayList<>();
+            for (Field field : nodeClass.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || !Modifier.isPrivate(field.getModifiers())) continue;
+                if (field.getName().equals("parent") || field.getName().equals("line")) continue;
+                field.setAccessible(true);
+                argumentList.add(field);
+            }
+            List<Field> attributeList = new ArrayList<>();
+            for (Class<?> c = nodeClass; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isPublic(field.getModifiers()) && !Modifier.isStatic(field.getModifiers())) attributeList.add(field);
+                }
+            }
+            arguments = argumentList.toArray(new Field[0]);
+            attributes = attributeList.toArray(new Field[0]);
+
+            Class<?>[] parameterTypes = new Class<?>[arguments.length];
+            for (int i = 0; i < arguments.length; i++) parameterTypes[i] = arguments[i].getType();
+            try {
+                constructor = nodeClass.getConstructor(parameterTypes);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException("No constructor that takes the fields of " + nodeClass.getName(), e);
+            }
+        }
+    }
+
+    /* Class fields */
+    private static final int MAGIC = 0x4D4A4153;    // "MJAS"
+    private static final int VERSION = 3;            // 3: the number of local variables of methods is stored apart from 'fpPos'
+
+    // Shared by all compilations (see 'SymbolTable'); reference 0 is null
+    private static final Struct[] PREDEFINED_STRUCTS = {Tab.noType, Tab.intType, Tab.charType, Tab.nullType, CommonUtils.boolType};
+    private static final Obj[] PREDEFINED_OBJS = {Tab.noObj};
+
+    // Field value tags
+    private static final int NODE = 0, STRING = 1, INTEGER = 2, CHARACTER = 3, BOOLEAN = 4, OBJ = 5, STRUCT = 6;
+
+    private static final String AST_PACKAGE = Program.class.getPackage().getName() + ".";
+    private static final ConcurrentMap<Class<?>, NodeLayout> layouts = new ConcurrentHashMap<>();
+
+    private final Program program;
+    private final int numberOfVariables;
+    private final Map<Obj, Integer> localVarCounts;
+
+    private AstSnapshot(Program program, int numberOfVariables, Map<Obj, Integer> localVarCounts) {
+        this.program = program;
+        this.numberOfVariables = numberOfVariables;
+        this.localVarCounts = localVarCounts;
+    }
+
+    private static NodeLayout layout(Class<?> nodeClass) {
+        return layouts.computeIfAbsent(nodeClass, NodeLayout::new);
+    }
+
+    private static int tag(Class<?> type) {
+        if (SyntaxNode.class.isAssignableFrom(type)) return NODE;
+        if (type == String.class) return STRING;
+        if (type == Integer.class) return INTEGER;
+        if (type == Character.class) return CHARACTER;
+        if (type == Boolean.class) return BOOLEAN;
+        if (type == Obj.class) return OBJ;
+        if (type == Struct.class) return STRUCT;
+        throw new IllegalStateException("Unsupported syntax tree field type: " + type.getName());
+    }
+
+    /* Writing */
+
+    /**
+     * Writes the analyzed syntax tree of a program, the number of its global variables and the numbers of local variables
+     * of its methods (see 'CompilationContext.getLocalVarCounts'), and closes the stream.
+     */
+    public static void write(Program program, int numberOfVariables, Map<Obj, Integer> localVarCounts, OutputStream stream) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            new Writer(out).write(program, numberOfVariables, localVarCounts);
+        }
+    }
+
+    private static class Writer {
+        private final DataOutputStream out;
+        private final Map<Struct, Integer> structs = new IdentityHashMap<>();
+        private final Map<Obj, Integer> objs = new IdentityHashMap<>();
+        private final List<Struct> structList = new ArrayList<>();
+        private final List<Obj> objList = new ArrayList<>();
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<Class<?>, Integer> classes = new IdentityHashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+            for (Struct struct : PREDEFINED_STRUCTS) structs.put(struct, structs.size() + 1);
+            for (Obj obj : PREDEFINED_OBJS) objs.put(obj, objs.size() + 1);
+        }
+
+        void write(Program program, int numberOfVariables, Map<Obj, Integer> localVarCounts) throws IOException {
+            collect(program);
+
+            out.writeInt(MAGIC);
+            writeInt(VERSION);
+            writeInt(numberOfVariables);
+
+            // Structures first (without references), then the objects (which need their types), then the references
+            writeInt(structList.size());
+            for (Struct struct : structList) writeInt(struct.getKind());
+            writeInt(objList.size());
+            for (Obj obj : objList) {
+                writeInt(obj.getKind());
+                writeString(obj.getName());
+                writeInt(structRef(obj.getType()));
+                writeSigned(obj.getAdr());
+                writeSigned(obj.getLevel());
+                writeSigned(obj.getFpPos());
+                if (obj.getKind() == Obj.Meth) {
+                    Integer localVarCount = localVarCounts.get(obj);
+                    writeSigned(localVarCount != null ? localVarCount : 0);
+                }
+            }
+            for (Struct struct : structList) {
+                writeInt(structRef(struct.getElemType()));
+                writeSymbols(struct.getMembersTable() == null ? null : struct.getMembers());
+            }
+            for (Obj obj : objList) writeSymbols(obj.getLocalSymbols());
+
+            writeNode(program);
+        }
+
+        /**
+         * Numbers the nodes of the symbol graph reachable from the attributes of the tree (depth-first).
+         */
+        private void collect(SyntaxNode node) {
+            if (node == null) return;
+            NodeLayout layout = layout(node.getClass());
+            try {
+                for (Field field : layout.attributes) collectValue(field.get(node));
+                for (Field field : layout.arguments) {
+                    if (tag(field.getType()) == NODE) collect((SyntaxNode) field.get(node));
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void collectValue(Object value) {
+            if (value instanceof Obj) collectObj((Obj) value);
+            else if (value instanceof Struct) collectStruct((Struct) value);
+        }
+
+        private void collectObj(Obj obj) {
+            if (obj == null || objs.containsKey(obj)) return;
+            objs.put(obj, objs.size() + 1);
+            objList.add(obj);
+            collectStruct(obj.getType());
+            for (Obj local : obj.getLocalSymbols()) collectObj(local);
+        }
+
+        private void collectStruct(Struct struct) {
+            if (struct == null || structs.containsKey(struct)) return;
+            structs.put(struct, structs.size() + 1);
+            structList.add(struct);
+            collectStruct(struct.getElemType());
+            if (struct.getMembersTable() != null) {
+                for (Obj member : struct.getMembers()) collectObj(member);
+            }
+        }
+
+        private void writeSymbols(Iterable<Obj> symbols) throws IOException {
+            if (symbols == null) {
+                writeInt(0);
+                return;
+            }
+            List<Obj> list = new ArrayList<>();
+            for (Obj obj : symbols) list.add(obj);
+            writeInt(list.size() + 1);
+            for (Obj obj : list) writeInt(objRef(obj));
+        }
+
+        private void writeNode(SyntaxNode node) throws IOException {
+            if (node == null) {
+                writeInt(0);
+                return;
+            }
+            Class<?> nodeClass = node.getClass();
+            Integer classRef = classes.get(nodeClass);
+            if (classRef == null) {
+                // A new class is written with its name (all of them are in the package of 'Program')
+                classes.put(nodeClass, classRef = classes.size() + 1);
+                writeInt(classRef);
+                out.writeUTF(nodeClass.getSimpleName());
+            } else {
+                writeInt(classRef);
+            }
+            writeInt(node.getLine());
+
+            NodeLayout layout = layout(nodeClass);
+            try {
+                for (Field field : layout.arguments) writeValue(field.getType(), field.get(node));
+                for (Field field : layout.attributes) writeValue(field.getType(), field.get(node));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void writeValue(Class<?> type, Object value) throws IOException {
+            switch (tag(type)) {
+                case NODE: writeNode((SyntaxNode) value); break;
+                case STRING: writeString((String) value); break;
+                case INTEGER:
+                    out.writeBoolean(value != null);
+                    if (value != null) writeSigned((Integer) value);
+                    break;
+                case CHARACTER:
+                    out.writeBoolean(value != null);
+                    if (value != null) out.writeChar((Character) value);
+                    break;
+                case BOOLEAN: out.writeByte(value == null ? 2 : (Boolean) value ? 1 : 0); break;
+                case OBJ: writeInt(objRef((Obj) value)); break;
+                default: writeInt(structRef((Struct) value));
+            }
+        }
+
+        private int structRef(Struct struct) {
+            return struct == null ? 0 : structs.get(struct);
+        }
+
+        private int objRef(Obj obj) {
+            return obj == null ? 0 : objs.get(obj);
+        }
+
+        /**
+         * Writes 0 for null, the index of a known string, or a new index followed by the string.
+         */
+        private void writeString(String value) throws IOException {
+            if (value == null) {
+                writeInt(0);
+                return;
+            }
+            Integer ref = strings.get(value);
+            if (ref != null) {
+                writeInt(ref);
+                return;
+            }
+            strings.put(value, strings.size() + 1);
+            writeInt(strings.size());
+            out.writeUTF(value);
+        }
+
+        private void writeSigned(int value) throws IOException {
+            writeInt((value << 1) ^ (value >> 31));
+        }
+
+        private void writeInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+    }
+
+    /* Reading */
+
+    /**
+     * Reads a snapshot written by 'write' and closes the stream.
+     */
+    public static AstSnapshot read(InputStream stream) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            return new Reader(in).read();
+        }
+    }
+
+    private static class Reader {
+        private final DataInputStream in;
+        private final List<Struct> structs = new ArrayList<>();
+        private final List<Obj> objs = new ArrayList<>();
+        private final List<String> strings = new ArrayList<>();
+        private final List<NodeLayout> classes = new ArrayList<>();
+        private final Map<Obj, Integer> localVarCounts = new IdentityHashMap<>();
+
+        Reader(DataInputStream in) {
+            this.in = in;
+            structs.add(null);
+            for (Struct struct : PREDEFINED_STRUCTS) structs.add(struct);
+            objs.add(null);
+            for (Obj obj : PREDEFINED_OBJS) objs.add(obj);
+            strings.add(null);
+            classes.add(null);
+        }
+
+        AstSnapshot read() throws IOException {
+            if (in.readInt() != MAGIC) throw new IOException("Not a syntax tree snapshot");
+            int version = readInt();
+            if (version != VERSION) throw new IOException("Unsupported syntax tree snapshot version: " + version);
+            int numberOfVariables = readInt();
+
+            int structCount = readInt();
+            for (int i = 0; i < structCount; i++) structs.add(new Struct(readInt()));
+            int objCount = readInt();
+            for (int i = 0; i < objCount; i++) {
+                int kind = readInt();
+                String name = readString();
+                Obj obj = new Obj(kind, name, readStruct(), readSigned(), readSigned());
+                obj.setFpPos(readSigned());
+                if (kind == Obj.Meth) localVarCounts.put(obj, readSigned());
+                objs.add(obj);
+            }
+            int firstStruct = 1 + PREDEFINED_STRUCTS.length, firstObj = 1 + PREDEFINED_OBJS.length;
+            for (int i = 0; i < structCount; i++) {
+                Struct struct = structs.get(firstStruct + i);
+                Struct elemType = readStruct();
+                if (elemType != null) struct.setElementType(elemType);
+                SymbolDataStructure members = readSymbols();
+                if (members != null) struct.setMembers(members);
+            }
+            for (int i = 0; i < objCount; i++) {
+                SymbolDataStructure locals = readSymbols();
+                if (locals != null && locals.numSymbols() > 0) objs.get(firstObj + i).setLocals(locals);
+            }
+
+            SyntaxNode program = readNode();
+            if (!(program instanceof Program)) throw new IOException("The snapshot does not contain a program");
+            return new AstSnapshot((Program) program, numberOfVariables, localVarCounts);
+        }
+
+        private SymbolDataStructure readSymbols() throws IOException {
+            int count = readInt() - 1;
+            if (count < 0) return null;
+            SymbolDataStructure symbols = new HashTableDataStructure();
+            for (int i = 0; i < count; i++) symbols.insertKey(readObj());
+            return symbols;
+        }
+
+        private SyntaxNode readNode() throws IOException {
+            int classRef = readInt();
+            if (classRef == 0) return null;
+            if (classRef == classes.size()) {
+                try {
+                    classes.add(layout(Class.forName(AST_PACKAGE + in.readUTF())));
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Unknown syntax tree node class", e);
+                }
+            } else if (classRef > classes.size()) {
+                throw new IOException("Corrupt syntax tree snapshot");
+            }
+            NodeLayout layout = classes.get(classRef);
+            int line = readInt();
+
+            Object[] arguments = new Object[layout.arguments.length];
+            for (int i = 0; i < arguments.length; i++) arguments[i] = readValue(layout.arguments[i].getType());
+            try {
+                // The constructor sets the parent of the child nodes
+                SyntaxNode node = (SyntaxNode) layout.constructor.newInstance(arguments);
+                node.setLine(line);
+                for (Field field : layout.attributes) field.set(node, readValue(field.getType()));
+                return node;
+            } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException("Cannot create a node of " + layout.nodeClass.getName(), e);
+            }
+        }
+
+        private Object readValue(Class<?> type) throws IOException {
+            switch (tag(type)) {
+                case NODE: return readNode();
+                case STRING: return readString();
+                case INTEGER: return in.readBoolean() ? readSigned() : null;
+                case CHARACTER: return in.readBoolean() ? in.readChar() : null;
+                case BOOLEAN:
+                    int value = in.readByte();
+                    return value == 2 ? null : value == 1;
+                case OBJ: return readObj();
+                default: return readStruct();
+            }
+        }
+
+        private Struct readStruct() throws IOException {
+            return structs.get(readInt());
+        }
+
+        private Obj readObj() throws IOException {
+            return objs.get(readInt());
+        }
+
+        private String readString() throws IOException {
+            int ref = readInt();
+            if (ref == strings.size()) strings.add(in.readUTF());
+            return strings.get(ref);
+        }
+
+        private int readSigned() throws IOException {
+            int value = readInt();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private int readInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = in.readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+        }
+    }
+
+    /* Getters and setters */
+    public Program getProgram() {
+        return program;
+    }
+
+    public int getNumberOfVariables() {
+        return numberOfVariables;
+    }
+
+    public Map<Obj, Integer> getLocalVarCounts() {
+        return localVarCounts;
+    }
+}
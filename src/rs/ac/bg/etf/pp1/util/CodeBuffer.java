@@ -0,0 +1,266 @@
+package rs.ac.bg.etf.pp1.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.log4j.Logger;
+
+import rs.etf.pp1.mj.runtime.Code;
+import rs.etf.pp1.symboltable.Tab;
+import rs.etf.pp1.symboltable.concepts.*;
+
+/**
+ * Instance-based counterpart of the static 'Code' class from the MicroJava runtime.
+ * <p>
+ * It produces exactly the same bytecode and object file format, but every compilation owns its own buffer.
+ * Instruction codes are still taken from the constants of the 'Code' class.
+ * <p>
+ * The buffer grows as needed, so the size of the code is not limited. The VM reads every 2-byte operand
+ * (including the relative jump and call offsets) as a signed 16-bit value, so an operand out of that range is an error.
+ * The calls of the runtime helpers stay in range, as the helpers are copied between the methods of a large program
+ * (see 'CommonUtils.generateDistantRuntimeHelpers'), so only a very large method can exceed it.
+ */
+public class CodeBuffer {
+    /* Class fields */
+    private static final int INITIAL_CAPACITY = 8192;
+
+    public byte[] buf = new byte[INITIAL_CAPACITY]; // Replaced by a bigger copy when full
+    public int pc = 0;
+    public int mainPc = -1;
+    public int dataSize = 0;
+
+    private String errorMessage = null;
+    private boolean operandRangeReported = false;
+
+    /* Printing and logging */
+    private static final Logger log = Logger.getLogger(CodeBuffer.class);
+
+    public void error(String message) {
+        if (errorMessage == null) errorMessage = message;
+        log.error(message);
+    }
+
+    /* Methods for writing into the buffer */
+    public void put(int x) {
+        if (pc == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+        buf[pc++] = (byte) x;
+    }
+
+    public void put2(int x) {
+        if ((x < Short.MIN_VALUE || x > Short.MAX_VALUE) && !operandRangeReported) {
+            // Reported once, as every call from a distant part of the code would report it again
+            operandRangeReported = true;
+            error("Error: Operand " + x + " at address " + pc + " does not fit into 16 bits (the code is too large)");
+        }
+        put(x >> 8);
+        put(x);
+    }
+
+    public void put4(int x) {
+        put(x >> 24);
+        put(x >> 16);
+        put(x >> 8);
+        put(x);
+    }
+
+    /**
+     * Copies a block of previously generated code into the buffer.
+     */
+    public void put(byte[] block) {
+        if (pc + block.length > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pc + block.length));
+        }
+        System.arraycopy(block, 0, buf, pc, block.length);
+        pc += block.length;
+    }
+
+    /**
+     * Writes a 2-byte value at the given address (without changing the program counter).
+     */
+    public void put2(int address, int x) {
+        int oldPc = pc;
+        pc = address;
+        put2(x);
+        pc = oldPc;
+    }
+
+    public int get(int address) {
+        return buf[address];
+    }
+
+    public int get2(int address) {
+        return (get(address) << 8) + (get(address + 1) & 0xFF);
+    }
+
+    /* Methods for generating instructions */
+
+    /**
+     * Generates an instruction that pushes the value of the given object node onto the expression stack.
+     */
+    public void load(Obj obj) {
+        switch (obj.getKind()) {
+            case Obj.Con:
+                if (obj.getType() == Tab.nullType) put(Code.const_n);
+                else loadConst(obj.getAdr());
+                break;
+            case Obj.Var:
+                if (obj.getLevel() == 0) {
+                    put(Code.getstatic);
+                    put2(obj.getAdr());
+                } else if (0 <= obj.getAdr() && obj.getAdr() <= 3) {
+                    put(Code.load_n + obj.getAdr());
+                } else {
+                    put(Code.load);
+                    put(obj.getAdr());
+                }
+                break;
+            case Obj.Fld:
+                put(Code.getfield);
+                put2(obj.getAdr());
+                break;
+            case Obj.Elem:
+                put(obj.getType().getKind() == Struct.Char ? Code.baload : Code.aload);
+                break;
+            default:
+                error("Error: Illegal operand in CodeBuffer.load");
+        }
+    }
+
+    public void loadConst(int n) {
+        if (0 <= n && n <= 5) {
+            put(Code.const_n + n);
+        } else if (n == -1) {
+            put(Code.const_m1);
+        } else {
+            put(Code.const_);
+            put4(n);
+        }
+    }
+
+    /**
+     * Generates an instruction that stores the value from the top of the expression stack into the given object node.
+     */
+    public void store(Obj obj) {
+        switch (obj.getKind()) {
+            case Obj.Var:
+                if (obj.getLevel() == 0) {
+                    put(Code.putstatic);
+                    put2(obj.getAdr());
+                } else if (0 <= obj.getAdr() && obj.getAdr() <= 3) {
+                    put(Code.store_n + obj.getAdr());
+                } else {
+                    put(Code.store);
+                    put(obj.getAdr());
+                }
+                break;
+            case Obj.Fld:
+                put(Code.putfield);
+                put2(obj.getAdr());
+                break;
+            case Obj.Elem:
+                put(obj.getType().getKind() == Struct.Char ? Code.bastore : Code.astore);
+                break;
+            default:
+                error("Error: The left side of an assignment must be a variable!");
+        }
+    }
+
+    public void putJump(int address) {
+        put(Code.jmp);
+        put2(address - pc + 1);
+    }
+
+    /**
+     * Generates a conditional jump that is taken if the inverse of the given condition holds.
+     */
+    public void putFalseJump(int op, int address) {
+        put(Code.jcc + Code.inverse[op]);
+        put2(address - pc + 1);
+    }
+
+    /**
+     * Patches the jump whose 2-byte address field is at 'patchAddress' so that it targets the current 'pc'.
+     */
+    public void fixup(int patchAddress) {
+        put2(patchAddress, pc - patchAddress + 1);
+    }
+
+    /**
+     * Writes the object file (header followed by the code) and closes the stream.
+     */
+    public void write(OutputStream stream) throws IOException {
+        try (OutputStream out = stream) {
+            out.write(header());
+            out.write(buf, 0, pc);
+        }
+    }
+
+    /**
+     * Writes the object file into a new file next to 'objFile' (with one write of the header and the code),
+     * which then replaces 'objFile', so a failed write never leaves a partial object file behind.
+     */
+    public void write(File objFile) throws IOException {
+        writeAtomically(objFile, ByteBuffer.wrap(header()), ByteBuffer.wrap(buf, 0, pc));
+    }
+
+    /**
+     * Writes the given contents into a new file next to 'file' with one gathering write, and then renames it to 'file'.
+     * Until the rename, 'file' keeps its previous contents, so readers never see a missing or partially written file.
+     */
+    public static void writeAtomically(File file, ByteBuffer... contents) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        String tempName = target.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp";
+        Path tempFile = target.resolveSibling(tempName);
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                while (contents[contents.length - 1].hasRemaining()) channel.write(contents);
+            }
+            try {
+                Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private byte[] header() {
+        byte[] header = new byte[14];
+        header[0] = 'M';
+        header[1] = 'J';
+        writeInt(header, 2, pc);
+        writeInt(header, 6, dataSize);
+        writeInt(header, 10, mainPc);
+        return header;
+    }
+
+    private static void writeInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >> 24);
+        target[offset + 1] = (byte) (value >> 16);
+        target[offset + 2] = (byte) (value >> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    /* Getters and setters */
+    public boolean isErrorDetected() {
+        return errorMessage != null;
+    }
+
+    /**
+     * Returns the first code generation error, or null if there were no errors.
+     */
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+}
@@ -1,9 +1,20 @@
 package rs.ac.bg.etf.pp1.util;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import rs.ac.bg.etf.pp1.CompilationContext;
 import rs.ac.bg.etf.pp1.ast.Const;
 import rs.ac.bg.etf.pp1.ast.ConstBool;
 import rs.ac.bg.etf.pp1.ast.ConstChar;
 import rs.ac.bg.etf.pp1.ast.ConstInt;
+import rs.ac.bg.etf.pp1.ast.Designator;
+import rs.ac.bg.etf.pp1.ast.SyntaxNode;
+import rs.ac.bg.etf.pp1.ast.VisitorAdaptor;
 import rs.etf.pp1.mj.runtime.Code;
 import rs.etf.pp1.symboltable.*;
 import rs.etf.pp1.symboltable.concepts.*;
@@ -12,341 +23,402 @@ public class CommonUtils {
     /* Class fields */
     public static final Struct boolType = new Struct(Struct.Bool);
 
-    private static int printBoolFunctionAddress;
-    private static int findAnyFunctionAddress;
-    private static int findAllFunctionAddress;
+    // Distance of the earliest pending helper call after which the helpers are generated between two methods
+    private static final int HELPER_GROUP_DISTANCE = 16 * 1024;
 
-    private static int arrayLengthCheckFunctionAddress;
-    private static int arrayMembersAccessCheckFunctionAddress;
-    private static int arrayIndexCheckFunctionAddress;
-
-    /* Getters and setters */
-    public static int getPrintBoolFunctionAddress() {
-        return printBoolFunctionAddress;
+    /* Methods */
+    public static void initSymbolTable(CompilationContext context) {
+        SymbolTable symbolTable = context.getSymbolTable();
+        symbolTable.init();
+        symbolTable.currentScope().addToLocals(new Obj(Obj.Type, "bool", boolType));
     }
 
-    public static int getFindAnyFunctionAddress() {
-        return findAnyFunctionAddress;
+    /**
+     * Generates a call to a runtime helper. The helpers are generated after the methods that call them, so the
+     * address field of the call is patched by 'generateRuntimeHelpers', unless a copy generated between earlier
+     * methods is within the range of the call.
+     */
+    public static void generateHelperCall(CompilationContext context, RuntimeHelper helper) {
+        CodeBuffer code = context.getCode();
+        int callAddress = code.pc;
+        int helperAddress = getHelperAddress(context, helper);
+
+        code.put(Code.call);
+        if (helperAddress >= 0 && helperAddress - callAddress >= Short.MIN_VALUE) {
+            code.put2(helperAddress - callAddress);
+        } else {
+            context.addHelperCall(helper, callAddress);
+            code.put2(0);
+        }
     }
 
-    public static int getFindAllFunctionAddress() {
-        return findAllFunctionAddress;
+    /**
+     * Generates the runtime helpers of the pending calls at the current address (between two methods) if the earliest
+     * of the calls is more than 'HELPER_GROUP_DISTANCE' bytes away, so that it still reaches them.
+     * <p>
+     * Every call reaches its helper as long as no method is longer than 'HELPER_GROUP_DISTANCE' bytes: a pending call is
+     * at most that far from the previous method boundary, and at most one method lies between it and the next one.
+     */
+    public static void generateDistantRuntimeHelpers(CompilationContext context) {
+        int earliestCall = Integer.MAX_VALUE;
+        for (List<Integer> calls : context.getHelperCalls().values()) {
+            earliestCall = Math.min(earliestCall, calls.get(0));
+        }
+        if (context.getCode().pc - earliestCall > HELPER_GROUP_DISTANCE) generateRuntimeHelpers(context);
     }
 
-    public static int getArrayLengthCheckFunctionAddress() {
-        return arrayLengthCheckFunctionAddress;
-    }
+    /**
+     * Generates the runtime helpers of the pending calls (at the current address) and patches the calls to them:
+     * - PRINT method for boolean values,
+     * - 'findAny' and 'findAll' specializations,
+     * - functions for array parameter checks.
+     * The members access check and the index check are generated together if the combined check of an array access
+     * is called, or if both of them are called and the peephole optimizer (which may combine the two calls) is enabled.
+     * <p>
+     * Unless disabled in the options, the code of the helpers is copied from a precompiled 'HelperSnapshot'.
+     * The generated group of helpers is recorded in the context (see 'CompilationContext.getHelperGroups').
+     */
+    public static void generateRuntimeHelpers(CompilationContext context) {
+        CodeBuffer code = context.getCode();
+        Map<RuntimeHelper, List<Integer>> calls = context.getHelperCalls();
+        if (calls.isEmpty()) return;
+
+        Set<RuntimeHelper> helpers = EnumSet.noneOf(RuntimeHelper.class);
+        helpers.addAll(calls.keySet());
+        if (context.getOptions().isOptimizePeephole()
+                && helpers.contains(RuntimeHelper.ARRAY_MEMBERS_ACCESS_CHECK) && helpers.contains(RuntimeHelper.ARRAY_INDEX_CHECK)) {
+            helpers.add(RuntimeHelper.ARRAY_ACCESS_CHECK);
+        }
+        if (helpers.contains(RuntimeHelper.ARRAY_ACCESS_CHECK)) {
+            // The combined check calls the members access check and continues into the index check (generated right after it)
+            helpers.add(RuntimeHelper.ARRAY_MEMBERS_ACCESS_CHECK);
+            helpers.add(RuntimeHelper.ARRAY_INDEX_CHECK);
+        }
 
-    public static int getArrayMembersAccessCheckFunctionAddress() {
-        return arrayMembersAccessCheckFunctionAddress;
+        // The helpers are generated in the order of their declaration
+        HelperSnapshot snapshot = context.getOptions().isPrecompiledHelpers()
+                ? HelperSnapshot.forUnrollFactor(context.getOptions().getFindUnrollFactor()) : null;
+        Map<RuntimeHelper, Integer> group = new EnumMap<>(RuntimeHelper.class);
+        for (RuntimeHelper helper : helpers) {
+            int helperAddress = code.pc;
+            setHelperAddress(context, helper, helperAddress);
+            group.put(helper, helperAddress);
+            if (snapshot != null) snapshot.copy(context, helper);
+            else generateHelper(context, helper);
+            context.getMetrics().addHelper(helper, code.pc - helperAddress);
+        }
+        context.addHelperGroup(group);
+
+        // Patch the calls (the offset of a call is relative to its own address)
+        for (Map.Entry<RuntimeHelper, List<Integer>> entry : calls.entrySet()) {
+            int helperAddress = getHelperAddress(context, entry.getKey());
+            for (int callAddress : entry.getValue()) {
+                code.put2(callAddress + 1, helperAddress - callAddress);
+            }
+        }
+        calls.clear();
     }
 
-    public static int getArrayIndexCheckFunctionAddress() {
-        return arrayIndexCheckFunctionAddress;
+    /**
+     * Generates the code of a runtime helper at the current address.
+     */
+    static void generateHelper(CompilationContext context, RuntimeHelper helper) {
+        switch (helper) {
+            case PRINT_BOOL: createPrintBoolMethod(context); break;
+            case FIND_ANY: createFindFunction(context, false, false); break;
+            case FIND_ALL: createFindFunction(context, true, false); break;
+            case CHAR_FIND_ANY: createFindFunction(context, false, true); break;
+            case CHAR_FIND_ALL: createFindFunction(context, true, true); break;
+            case ARRAY_LENGTH_CHECK: createArrayLengthCheckFunction(context); break;
+            case ARRAY_MEMBERS_ACCESS_CHECK: createArrayMembersAccessCheckFunction(context); break;
+            case ARRAY_ACCESS_CHECK: createArrayAccessCheckEntry(context); break;
+            default: createArrayIndexCheckFunction(context);
+        }
     }
 
-    /* Methods */
-    public static void initSymbolTable() {
-        Tab.init();
-        Tab.currentScope.addToLocals(new Obj(Obj.Type, "bool", boolType));
+    static int getHelperAddress(CompilationContext context, RuntimeHelper helper) {
+        switch (helper) {
+            case PRINT_BOOL: return context.getPrintBoolFunctionAddress();
+            case FIND_ANY: return context.getFindAnyFunctionAddress();
+            case FIND_ALL: return context.getFindAllFunctionAddress();
+            case CHAR_FIND_ANY: return context.getCharFindAnyFunctionAddress();
+            case CHAR_FIND_ALL: return context.getCharFindAllFunctionAddress();
+            case ARRAY_LENGTH_CHECK: return context.getArrayLengthCheckFunctionAddress();
+            case ARRAY_MEMBERS_ACCESS_CHECK: return context.getArrayMembersAccessCheckFunctionAddress();
+            case ARRAY_ACCESS_CHECK: return context.getArrayAccessCheckFunctionAddress();
+            default: return context.getArrayIndexCheckFunctionAddress();
+        }
     }
 
-    /**
-     * Initializes code generation for:
-     * - PRINT method for boolean values,
-     * - calling 'findAny',
-     * - functions for array parameter checks.
-     */
-    public static void initCodeGenerator() {
-        // Add print instruction version for boolean type
-        createPrintBoolMethod();
-
-        // Add 'findAny' function
-        createFindAnyMethod();
-        createFindAllFunction();
-
-        // Create array 'guardian' functions
-        createArrayLengthCheckFunction();
-        createArrayMembersAccessCheckFunction();
-        createArrayIndexCheckFunction();
+    static void setHelperAddress(CompilationContext context, RuntimeHelper helper, int address) {
+        switch (helper) {
+            case PRINT_BOOL: context.setPrintBoolFunctionAddress(address); break;
+            case FIND_ANY: context.setFindAnyFunctionAddress(address); break;
+            case FIND_ALL: context.setFindAllFunctionAddress(address); break;
+            case CHAR_FIND_ANY: context.setCharFindAnyFunctionAddress(address); break;
+            case CHAR_FIND_ALL: context.setCharFindAllFunctionAddress(address); break;
+            case ARRAY_LENGTH_CHECK: context.setArrayLengthCheckFunctionAddress(address); break;
+            case ARRAY_MEMBERS_ACCESS_CHECK: context.setArrayMembersAccessCheckFunctionAddress(address); break;
+            case ARRAY_ACCESS_CHECK: context.setArrayAccessCheckFunctionAddress(address); break;
+            default: context.setArrayIndexCheckFunctionAddress(address);
+        }
     }
 
-    private static void createPrintBoolMethod() {
-        // Address of the first instruction (important later when calling this method)
-        printBoolFunctionAddress = Code.pc;
+    private static void createPrintBoolMethod(CompilationContext context) {
+        CodeBuffer code = context.getCode();
 
         // This function has 2 arguments ('val' and 'width') and 0 local parameters
-        generateMethodInitialCode(2, 0);
+        generateMethodInitialCode(context, 2, 0);
 
         // Load the first argument 'val'
         // Insert instruction to push 'val' onto stack and the value 1 (for comparison)
-        Code.put(Code.load_n);
-        Code.loadConst(1);
+        code.put(Code.load_n);
+        code.loadConst(1);
 
         // Jump happens if 'val' is 1 (true)
-        Code.putFalseJump(1, 0);
-        int addressIfTrue = Code.pc - 2; // Address field to be modified
+        code.putFalseJump(1, 0);
+        int addressIfTrue = code.pc - 2; // Address field to be modified
 
         // Otherwise, 'false' is printed, and there is an unconditional jump to avoid printing 'true'
-        printStringLiteral("false");
-        Code.putJump(0);
-        int methodExitAddress = Code.pc - 2;
+        printStringLiteral(context, "false");
+        code.putJump(0);
+        int methodExitAddress = code.pc - 2;
 
         // Set the address to the instruction below for printing 'true' if 1 (true) on the stack
-        Code.fixup(addressIfTrue);
-        printStringLiteral("true");
+        code.fixup(addressIfTrue);
+        printStringLiteral(context, "true");
 
         // Set the address to the instruction below for exiting the method
-        Code.fixup(methodExitAddress);
-        generateMethodFinalCode();
+        code.fixup(methodExitAddress);
+        generateMethodFinalCode(context);
     }
 
-    private static void printStringLiteral(String value) {
+    private static void printStringLiteral(CompilationContext context, String value) {
+        CodeBuffer code = context.getCode();
+
         for (int i = 0; i < value.length(); i++) {
-            // Create a character constant and load it onto the stack as 'val'
-            Obj cnstObj = addConstToSymTable("$", Tab.charType, value.charAt(i));
-            Code.load(cnstObj);
+            // Take the character constant from the literal pool and load it onto the stack as 'val'
+            Obj cnstObj = context.getLiteralPool().get(Tab.charType, value.charAt(i));
+            code.load(cnstObj);
 
             // Load 'width' for the 'printBool' method
-            if (i != 0) Code.loadConst(1);
-            else Code.put(Code.load_1);
+            if (i != 0) code.loadConst(1);
+            else code.put(Code.load_1);
 
             // Generate 'print' instruction's code
-            Code.put(Code.bprint);
+            code.put(Code.bprint);
         }
     }
 
-    private static void createFindAnyMethod() {
-        // Set the address for the findAny function
-        findAnyFunctionAddress = Code.pc;
-
-        // Generate the initial code for the method
-        generateMethodInitialCode(2, 1);
-
-        // Load the array address (PARAMETER 1)
-        Code.put(Code.load_n);
-
-        // Determine the length of the array for search boundary (PARAMETER 2)
-        Code.put(Code.arraylength);
-
-        /* LOOP_START */
-        int loopStartAddress = Code.pc;
-
-        // Put value 1 on the stack to decrement the index in each iteration
-        Code.loadConst(1);
-
-        // Decrease the index on the stack
-        Code.put(Code.sub);
-
-        // Store the index value into local variable at index '2'
-        Code.put(Code.store_2);
-
-        // Loop condition check
-        Code.put(Code.load_2);
-        Code.loadConst(0);
-
-        // Compare the value on top of the stack (0) and the index
-        // If < 0, program jumps to the address for failure search return
-        Code.putFalseJump(5, 0);
-        int loopExitFailAddress = Code.pc - 2; // Address field to be modified
-
-        // Load the array element
-        Code.put(Code.load_n);
-        Code.put(Code.load_2);
-        Code.put(Code.aload);
-
-        // Load the value being searched for
-        Code.put(Code.load_1);
-
-        // Loop exits when a value equal to the searched one is found in the array
-        Code.putFalseJump(1, 0);
-        int loopExitSuccessAddress = Code.pc - 2;
-
-        // Jump to the next iteration
-        Code.put(Code.load_2);
-        Code.putJump(loopStartAddress);
+    /**
+     * Creates a specialization of 'findAny' (returns whether 'value' occurs in the array) or 'findAll' (returns the
+     * number of its occurrences). Both take the array address and the value, and compare the elements from the last
+     * to the first one; char arrays are read with 'baload', int and bool arrays with 'aload'.
+     * <p>
+     * The loop is unrolled by 'CompilerOptions.getFindUnrollFactor': every iteration of the main loop checks once that
+     * at least that many elements are left and then compares them without any further checks. The remaining elements
+     * are compared by a second loop, one per iteration. The index (local 2) is decremented in place with 'inc'.
+     */
+    private static void createFindFunction(CompilationContext context, boolean findAll, boolean charElements) {
+        CodeBuffer code = context.getCode();
+        int unrollFactor = context.getOptions().getFindUnrollFactor();
+        List<Integer> foundAddresses = new ArrayList<>(); // Address fields of the jumps taken when 'findAny' finds the value
+
+        // Parameters: array address (0) and value (1); local variables: index (2) and the counter of found elements (3)
+        generateMethodInitialCode(context, 2, findAll ? 2 : 1);
+        if (findAll) {
+            code.loadConst(0);
+            code.put(Code.store_3);
+        }
 
-        /* LOOP_END */
+        // The index starts at the array length
+        code.put(Code.load_n);
+        code.put(Code.arraylength);
+        code.put(Code.store_2);
 
-        // Set return value to 0 if element is not found
-        Code.fixup(loopExitFailAddress);
-        Code.loadConst(0);
-        Code.putJump(0);
-        int methodExitAddress = Code.pc - 2; // Address field to be modified
+        /* UNROLLED LOOP: while (index >= unrollFactor) */
+        int unrolledLoopAddress = code.pc;
+        code.put(Code.load_2);
+        code.loadConst(unrollFactor);
+        code.putFalseJump(Code.ge, 0);
+        int unrolledLoopExitAddress = code.pc - 2;
 
-        // Set return value to 1 if element is found
-        Code.fixup(loopExitSuccessAddress);
-        Code.loadConst(1);
+        for (int i = 0; i < unrollFactor; i++) {
+            generateFindComparison(context, findAll, charElements, foundAddresses);
+        }
+        code.putJump(unrolledLoopAddress);
+        code.fixup(unrolledLoopExitAddress);
+
+        /* REMAINDER LOOP: while (index > 0), only needed if the loop above is unrolled */
+        if (unrollFactor > 1) {
+            int remainderLoopAddress = code.pc;
+            code.put(Code.load_2);
+            code.loadConst(0);
+            code.putFalseJump(Code.gt, 0);
+            int remainderLoopExitAddress = code.pc - 2;
+
+            generateFindComparison(context, findAll, charElements, foundAddresses);
+            code.putJump(remainderLoopAddress);
+            code.fixup(remainderLoopExitAddress);
+        }
 
-        // Generate the final code for the method
-        Code.fixup(methodExitAddress);
-        generateMethodFinalCode();
+        if (findAll) {
+            // Return the counter of found elements
+            code.put(Code.load_3);
+            generateMethodFinalCode(context);
+        } else {
+            // Return 0 if the value is not found, and 1 otherwise
+            code.loadConst(0);
+            generateMethodFinalCode(context);
+
+            for (int foundAddress : foundAddresses) {
+                code.fixup(foundAddress);
+            }
+            code.loadConst(1);
+            generateMethodFinalCode(context);
+        }
     }
 
-    public static void createFindAllFunction() {
-        findAllFunctionAddress = Code.pc;
-        generateMethodInitialCode(2, 2);
-
-        // Load the array address (PARAMETER 1)
-        Code.put(Code.load_n);
-
-        // Determine the length of the array for search boundary (PARAMETER
-        Code.put(Code.arraylength);
-
-        /* LOOP_START */
-        int loopStartAddress = Code.pc;
-
-        // Put value 1 on the stack to decrement the index in each iteration
-        Code.loadConst(1);
-
-        // Decrease the index on the stack
-        Code.put(Code.sub);
-
-        // Store the index value into local variable at index '2'
-        Code.put(Code.store_2);
-
-        // Loop condition check
-        Code.put(Code.load_2);
-        Code.loadConst(0);
-
-        // Compare the value on top of the stack (0) and the index
-        // If < 0, program jumps to the address for failure search return
-        Code.putFalseJump(5, 0);
-        int loopExitFailAddress = Code.pc - 2; // Address field to be modified
-
-        // Load the array element
-        Code.put(Code.load_n);
-        Code.put(Code.load_2);
-        Code.put(Code.aload);
-
-        // Load the value being searched for
-        Code.put(Code.load_1);
-
-        // Loop exits when a value equal to the searched one is found in the array
-        Code.putFalseJump(1, 0);
-        int loopExitSuccessAddress = Code.pc - 2;
-
-        // Jump to the next iteration
-        Code.put(Code.load_2);
-        Code.putJump(loopStartAddress);
-
-        /* LOOP_END */
-
-        // Set return value to 0 if element is not found
-        Code.fixup(loopExitFailAddress);
-        Code.put(Code.load_3);
-        Code.putJump(0);
-        int methodExitAddress = Code.pc - 2; // Address field to be modified
-
-        // Increment the counter of found elements
-        Code.fixup(loopExitSuccessAddress);
-
-        Code.put(Code.load_3);
-        Code.loadConst(1);
-        Code.put(Code.add);
-        Code.put(Code.store_3);
-
-        // Jump to the next iteration
-        Code.put(Code.load_2);
-        Code.putJump(loopStartAddress);
-
-        Code.fixup(methodExitAddress);
-
-        generateMethodFinalCode();
+    /**
+     * Decrements the index and compares the element at the index with the value:
+     * 'findAny' jumps to its return of 1 (the address field is added to 'foundAddresses'), 'findAll' increments the counter.
+     */
+    private static void generateFindComparison(CompilationContext context, boolean findAll, boolean charElements,
+                                               List<Integer> foundAddresses) {
+        CodeBuffer code = context.getCode();
+
+        code.put(Code.inc);
+        code.put(2);
+        code.put(-1);
+
+        // Load the array element and the value being searched for
+        code.put(Code.load_n);
+        code.put(Code.load_2);
+        code.put(charElements ? Code.baload : Code.aload);
+        code.put(Code.load_1);
+
+        if (findAll) {
+            // Skip the increment of the counter if the element differs from the value
+            code.putFalseJump(Code.eq, 0);
+            int notEqualAddress = code.pc - 2;
+
+            code.put(Code.inc);
+            code.put(3);
+            code.put(1);
+            code.fixup(notEqualAddress);
+        } else {
+            code.putFalseJump(Code.ne, 0);
+            foundAddresses.add(code.pc - 2);
+        }
     }
 
-    private static void createArrayLengthCheckFunction() {
-        // Store the address of the function and generate the initial method code
-        arrayLengthCheckFunctionAddress = Code.pc;
-        generateMethodInitialCode(1, 0);
+    private static void createArrayLengthCheckFunction(CompilationContext context) {
+        CodeBuffer code = context.getCode();
+
+        // Generate the initial method code
+        generateMethodInitialCode(context, 1, 0);
 
         // Load the array length onto the stack
-        Code.put(Code.load_n);
+        code.put(Code.load_n);
 
         // Load 0 onto the stack (to compare with the array length)
-        Code.loadConst(0);
+        code.loadConst(0);
 
         // If 'array length >= 0', jump forward to an unknown address
-        Code.putFalseJump(2, 0);
-        int validArrayLengthAddress = Code.pc - 2; // address field
+        code.putFalseJump(2, 0);
+        int validArrayLengthAddress = code.pc - 2; // address field
 
         // In case of error, print message and halt (trap)
-        printStringLiteral("\nArray length cannot be a negative number!");
-        Code.put(Code.trap);
-        Code.put(0);
+        printStringLiteral(context, "\nArray length cannot be a negative number!");
+        code.put(Code.trap);
+        code.put(0);
 
         // Modify the jump address field
-        Code.fixup(validArrayLengthAddress);
+        code.fixup(validArrayLengthAddress);
 
         // If no error, exit the function
-        generateMethodFinalCode();
+        generateMethodFinalCode(context);
     }
 
     /**
      * Creates a function to check array members access.
      */
-    private static void createArrayMembersAccessCheckFunction() {
-        // Set the address for the array members access check function
-        arrayMembersAccessCheckFunctionAddress = Code.pc;
+    private static void createArrayMembersAccessCheckFunction(CompilationContext context) {
+        CodeBuffer code = context.getCode();
 
         // Generate initial method code
-        generateMethodInitialCode(1, 0);
+        generateMethodInitialCode(context, 1, 0);
 
         // Load the value at position 0 (array address) onto stack
-        Code.put(Code.load_n);
+        code.put(Code.load_n);
 
         // Check if array address is zero (array not initialized), and if so, jump to error message
-        Code.loadConst(0);
-        Code.putFalseJump(0, 0);
-        int arrayNotInitializedAddress = Code.pc - 2;
+        code.loadConst(0);
+        code.putFalseJump(0, 0);
+        int arrayNotInitializedAddress = code.pc - 2;
 
         // Print error message and trap in case of array access before initialization
-        printStringLiteral("\nAccessing array elements before array initialization!");
-        Code.put(Code.trap);
-        Code.put(2);
+        printStringLiteral(context, "\nAccessing array elements before array initialization!");
+        code.put(Code.trap);
+        code.put(2);
 
         // Modify the jump address field for printing the message and 'trap'
-        Code.fixup(arrayNotInitializedAddress);
+        code.fixup(arrayNotInitializedAddress);
 
         // Generate final method code and exit the function
-        generateMethodFinalCode();
+        generateMethodFinalCode(context);
+    }
+
+    /**
+     * Creates the combined check of an array access: a second entry point of the index check function (generated
+     * right after it) that takes the same arguments (array address and index), calls the array members access check
+     * with the array address and then continues into the index check.
+     * The peephole optimizer replaces the two separate checks of an array access with a call to this entry point.
+     */
+    private static void createArrayAccessCheckEntry(CompilationContext context) {
+        CodeBuffer code = context.getCode();
+
+        // The arguments are still on the expression stack, since 'enter' has not been executed
+        code.put(Code.dup2);
+        code.put(Code.pop);
+        generateMethodCall(context, context.getArrayMembersAccessCheckFunctionAddress());
     }
 
     /**
      * Creates a function to check for array index boundaries
      */
-    private static void createArrayIndexCheckFunction() {
-        // Save the current program counter as the address of the array index check function
-        arrayIndexCheckFunctionAddress = Code.pc;
+    private static void createArrayIndexCheckFunction(CompilationContext context) {
+        CodeBuffer code = context.getCode();
+
         // Generate the initial code for the function
-        generateMethodInitialCode(2, 0);
+        generateMethodInitialCode(context, 2, 0);
 
         // Load the array length and index of the array (already on the stack)
-        Code.put(Code.load_n);
-        Code.put(Code.arraylength); // Array length
-        Code.put(Code.load_1); // Index of the array
+        code.put(Code.load_n);
+        code.put(Code.arraylength); // Array length
+        code.put(Code.load_1); // Index of the array
 
         // If 'array length <= index', jump to error
-        Code.putFalseJump(4, 0);
-        int indexOverFlowAddress = Code.pc - 2;
+        code.putFalseJump(4, 0);
+        int indexOverFlowAddress = code.pc - 2;
 
         // Load the index and check if it's less than 0 (jump to error)
-        Code.put(Code.load_1);
-        Code.loadConst(0);
-        Code.putFalseJump(5, 0);
-        int indexUnderflowAddress = Code.pc - 2;
+        code.put(Code.load_1);
+        code.loadConst(0);
+        code.putFalseJump(5, 0);
+        int indexUnderflowAddress = code.pc - 2;
 
         // Generate the final code for the function
-        generateMethodFinalCode();
+        generateMethodFinalCode(context);
 
         // Fixup the jump addresses for index overflow and underflow errors
-        Code.fixup(indexOverFlowAddress);
-        Code.fixup(indexUnderflowAddress);
+        code.fixup(indexOverFlowAddress);
+        code.fixup(indexUnderflowAddress);
 
         // Print error message in case of index out of bounds
-        printStringLiteral("\nArray index is out of bounds!");
-        Code.put(Code.trap);
-        Code.put(1);
+        printStringLiteral(context, "\nArray index is out of bounds!");
+        code.put(Code.trap);
+        code.put(1);
     }
 
     /* Utility functions */
@@ -373,14 +445,15 @@ public class CommonUtils {
     /**
      * Adds a constant to the symbol table.
      *
+     * @param context Compilation whose symbol table receives the constant.
      * @param name  Name of the constant.
      * @param type  Type of the constant.
      * @param value Value of the constant.
      * @return Returns the object node of the constant in the symbol table.
      */
-    public static Obj addConstToSymTable(String name, Struct type, int value) {
+    public static Obj addConstToSymTable(CompilationContext context, String name, Struct type, int value) {
         // Insert the constant into the symbol table
-        Obj constObj = Tab.insert(Obj.Con, name, type);
+        Obj constObj = context.getSymbolTable().insert(Obj.Con, name, type);
 
         // Set the level of the constant to 0 (global data)
         constObj.setLevel(0);
@@ -393,33 +466,64 @@ public class CommonUtils {
     }
 
     /**
-     * Returns the Struct object for an array of elements of type 'elemType'.
-     *
-     * @param elemType Struct object for the type of array elements.
-     * @return Returns the Struct object of the array.
+     * Same as 'src.assignableTo(dst)', but skips the structural comparison when both are the same (canonical) type.
      */
-    public static Struct getArrayType(Struct elemType) {
-        return new Struct(Struct.Array, elemType);
+    public static boolean isAssignable(Struct src, Struct dst) {
+        return src == dst || src.assignableTo(dst);
     }
 
-    public static void generateMethodInitialCode(int formalParamCount, int localVarCount) {
-        Code.put(Code.enter);
-        Code.put(formalParamCount);
-        Code.put(formalParamCount + localVarCount);
+    /**
+     * Same as 'first.compatibleWith(second)', but skips the structural comparison when both are the same (canonical) type.
+     */
+    public static boolean isCompatible(Struct first, Struct second) {
+        return first == second || first.compatibleWith(second);
     }
 
-    public static void generateMethodFinalCode() {
+    /**
+     * Checks whether the designator is an array of characters (stored in bytes, unlike the other arrays).
+     */
+    public static boolean isCharArray(Designator designator) {
+        return designator.obj.getType().getElemType() == Tab.charType;
+    }
+
+    public static void generateMethodInitialCode(CompilationContext context, int formalParamCount, int localVarCount) {
+        CodeBuffer code = context.getCode();
+
+        code.put(Code.enter);
+        code.put(formalParamCount);
+        code.put(formalParamCount + localVarCount);
+    }
+
+    public static void generateMethodFinalCode(CompilationContext context) {
+        CodeBuffer code = context.getCode();
+
         // Destroy the method activation record on the stack
-        Code.put(Code.exit);
+        code.put(Code.exit);
 
         // Return to the caller
-        Code.put(Code.return_);
+        code.put(Code.return_);
     }
 
-    public static void generateMethodCall(int methodAddress) {
+    public static void generateMethodCall(CompilationContext context, int methodAddress) {
+        CodeBuffer code = context.getCode();
+
         // Generate bytecode for calling a method whose address is given.
-        int offset = methodAddress - Code.pc;
-        Code.put(Code.call);
-        Code.put2(offset);
+        int offset = methodAddress - code.pc;
+        code.put(Code.call);
+        code.put2(offset);
+    }
+
+    /**
+     * Counts the nodes of a syntax tree: the generated adaptor calls 'visit()' once for every visited node.
+     */
+    public static long countNodes(SyntaxNode root) {
+        long[] count = new long[1];
+        root.traverseBottomUp(new VisitorAdaptor() {
+            @Override
+            public void visit() {
+                count[0]++;
+            }
+        });
+        return count[0];
     }
 }
@@ -0,0 +1,330 @@
+package rs.ac.bg.etf.pp1.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.log4j.Logger;
+
+import rs.ac.bg.etf.pp1.CompilerOptions;
+
+/**
+ * On-disk cache of compilation results (the object file and the diagnostics), shared by compiler processes.
+ * <p>
+ * An entry is keyed by the SHA-256 hash of the compiler version, the options that affect the output
+ * ('CompilerOptions.getOutputFingerprint') and the bytes of the source file. The compiler version is the hash of
+ * the compiler's own class files, so a changed compiler never reuses the entries of an older one. The generated
+ * code and the diagnostics depend only on these inputs, so the entries are also valid on other machines.
+ * <p>
+ * Every entry is a single file, written into a temporary file and renamed into place, so concurrent processes
+ * never read a partially written entry; a corrupt or vanished entry is treated as a miss. The last modification time
+ * of an entry is its last use: when the entries grow above the size limit, the least recently used ones are deleted.
+ */
+public class CompilationCache {
+    /**
+     * A cached compilation result; 'objectCode' is null if the compilation failed.
+     */
+    public static class Entry {
+        private final boolean success;
+        private final List<String> diagnostics;
+        private final byte[] objectCode;
+
+        Entry(boolean success, List<String> diagnostics, byte[] objectCode) {
+            this.success = success;
+            this.diagnostics = diagnostics;
+            this.objectCode = objectCode;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public List<String> getDiagnostics() {
+            return diagnostics;
+        }
+
+        public byte[] getObjectCode() {
+            return objectCode;
+        }
+    }
+
+    private static final Logger log = Logger.getLogger(CompilationCache.class);
+
+    /* Class fields */
+    private static final int ENTRY_MAGIC = 0x4D4A4331;     // "MJC1"
+    private static final String ENTRY_SUFFIX = ".entry";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final long TEMP_FILE_MAX_AGE_MILLIS = 60 * 60 * 1000;   // Left behind by crashed processes
+
+    private static final ConcurrentMap<Path, CompilationCache> caches = new ConcurrentHashMap<>();
+    private static volatile String compilerVersion = null;
+
+    private final Path directory;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private CompilationCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the cache in the given directory; all compilations of this process that use the directory share
+     * the same instance (and its counters).
+     */
+    public static CompilationCache forDirectory(File directory) {
+        return caches.computeIfAbsent(directory.toPath().toAbsolutePath().normalize(), CompilationCache::new);
+    }
+
+    /**
+     * Returns the key of the compilation of the given source file contents with the given options.
+     */
+    public String key(byte[] source, CompilerOptions options) {
+        MessageDigest digest = sha256();
+        digest.update(compilerVersion().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(options.getOutputFingerprint().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(source);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns the cached result of a compilation, or null if it is not in the cache.
+     */
+    public Entry get(String key) {
+        Path file = directory.resolve(key + ENTRY_SUFFIX);
+        try {
+            Entry entry = readEntry(Files.readAllBytes(file));
+            if (entry != null) {
+                hits.incrementAndGet();
+                touch(file);
+                return entry;
+            }
+            log.warn("Discarding corrupt compilation cache entry: " + file);
+            Files.deleteIfExists(file);
+        } catch (NoSuchFileException e) {
+            // Not cached yet, or evicted by another process
+        } catch (IOException e) {
+            log.warn("Cannot read compilation cache entry " + file + ": " + e);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores the result of a compilation and evicts the least recently used entries if the cache is too large.
+     * A failure to write the cache is logged, but does not affect the compilation.
+     */
+    public void put(String key, boolean success, List<String> diagnostics, byte[] objectCode, long sizeLimit) {
+        try {
+            Files.createDirectories(directory);
+            Path tempFile = Files.createTempFile(directory, key, TEMP_SUFFIX);
+            try {
+                Files.write(tempFile, writeEntry(success, diagnostics, objectCode));
+                Path file = directory.resolve(key + ENTRY_SUFFIX);
+                try {
+                    Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+            evict(sizeLimit);
+        } catch (IOException e) {
+            log.warn("Cannot write compilation cache entry " + key + ": " + e);
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until their total size is at most 'sizeLimit' bytes
+     * (and the temporary files of crashed processes). Files deleted by other processes in the meantime are skipped.
+     */
+    private void evict(long sizeLimit) throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(ENTRY_SUFFIX)) entries.add(file);
+                else if (name.endsWith(TEMP_SUFFIX) && lastModified(file) < System.currentTimeMillis() - TEMP_FILE_MAX_AGE_MILLIS) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+
+        long[] sizes = new long[entries.size()];
+        long[] times = new long[entries.size()];
+        long totalSize = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            sizes[i] = size(entries.get(i));
+            times[i] = lastModified(entries.get(i));
+            totalSize += sizes[i];
+        }
+        if (totalSize <= sizeLimit) return;
+
+        // Oldest first
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) order.add(i);
+        Collections.sort(order, (a, b) -> Long.compare(times[a], times[b]));
+        for (int i : order) {
+            if (totalSize <= sizeLimit) break;
+            if (Files.deleteIfExists(entries.get(i))) evictions.incrementAndGet();
+            totalSize -= sizes[i];
+        }
+    }
+
+    private static byte[] writeEntry(boolean success, List<String> diagnostics, byte[] objectCode) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(ENTRY_MAGIC);
+            out.writeBoolean(success);
+            out.writeInt(diagnostics.size());
+            for (String diagnostic : diagnostics) out.writeUTF(diagnostic);
+            out.writeInt(objectCode == null ? -1 : objectCode.length);
+            if (objectCode != null) out.write(objectCode);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes an entry, returns null if it is corrupt.
+     */
+    private static Entry readEntry(byte[] bytes) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (in.readInt() != ENTRY_MAGIC) return null;
+            boolean success = in.readBoolean();
+
+            int diagnosticCount = in.readInt();
+            if (diagnosticCount < 0) return null;
+            List<String> diagnostics = new ArrayList<>();
+            for (int i = 0; i < diagnosticCount; i++) diagnostics.add(in.readUTF());
+
+            int objectLength = in.readInt();
+            byte[] objectCode = null;
+            if (objectLength >= 0) {
+                objectCode = new byte[objectLength];
+                in.readFully(objectCode);
+            }
+            if (in.read() != -1 || success != (objectCode != null)) return null;
+            return new Entry(success, diagnostics, objectCode);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the hash of the class files of the compiler (a jar file or a directory of classes),
+     * or a constant if they cannot be read.
+     */
+    private static String compilerVersion() {
+        String version = compilerVersion;
+        if (version != null) return version;
+
+        MessageDigest digest = sha256();
+        try {
+            CodeSource codeSource = CompilationCache.class.getProtectionDomain().getCodeSource();
+            Path location = Paths.get(codeSource.getLocation().toURI());
+            if (Files.isDirectory(location)) {
+                // Sorted by their relative paths, so the hash does not depend on the file system
+                List<String> classFiles;
+                try (Stream<Path> files = Files.walk(location)) {
+                    classFiles = files.filter(file -> file.toString().endsWith(".class"))
+                            .map(file -> location.relativize(file).toString().replace(File.separatorChar, '/'))
+                            .sorted().collect(Collectors.toList());
+                }
+                for (String classFile : classFiles) {
+                    digest.update(classFile.getBytes(StandardCharsets.UTF_8));
+                    digest.update(Files.readAllBytes(location.resolve(classFile)));
+                }
+            } else {
+                digest.update(Files.readAllBytes(location));
+            }
+            version = toHex(digest.digest());
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            log.warn("Cannot hash the compiler classes, the compilation cache is keyed by the source and options only: " + e);
+            version = "unknown";
+        }
+        compilerVersion = version;
+        return version;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+
+    private static void touch(Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Evicted by another process in the meantime
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long size(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /* Getters and setters */
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "Compilation cache " + directory + ": " + hits + " hits, " + misses + " misses, " + evictions + " evictions";
+    }
+}
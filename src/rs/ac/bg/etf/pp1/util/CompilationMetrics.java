@@ -0,0 +1,331 @@
+package rs.ac.bg.etf.pp1.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counters, times and allocated bytes of the phases of a single compilation.
+ * <p>
+ * The counters (tokens, error recoveries, symbols, lookups, semantic errors, helpers and code size) are always collected.
+ * The time and the allocated bytes of every phase, the number of syntax tree nodes and the code size of every method
+ * are measured only if the metrics are enabled ('CompilerOptions.setCollectMetrics').
+ * <p>
+ * Exactly one phase is measured at a time: 'enterPhase' charges the time and the allocations since the previous call
+ * to the phase that was being measured, so a phase that runs inside another one (e.g. the analysis of a method
+ * in the streaming compilation) is not counted twice.
+ * <p>
+ * The lexer is called for every token from inside the parser, and measuring every call would cost more than most tokens.
+ * Only every 'LEXER_SAMPLE_INTERVAL'-th token is measured ('sampleNextToken'): the samples are extrapolated to all
+ * scanned tokens, and that share of the parsing phase is reported as lexing.
+ * The allocations are those of the compiling thread, as reported by the JVM ('-1' if it cannot measure them).
+ */
+public class CompilationMetrics {
+    public enum Phase {
+        LEXING("lexing"),      // Extrapolated from a sample of the tokens (see 'sampleNextToken')
+        PARSING("parsing"),
+        SEMANTIC_ANALYSIS("semanticAnalysis"),
+        CODE_GENERATION("codeGeneration"),
+        OBJECT_FILE("objectFile"); // Peephole optimization and writing of the object file
+
+        private final String jsonName;
+
+        Phase(String jsonName) {
+            this.jsonName = jsonName;
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean threadBean = allocationMeasuringBean();
+
+    private static final int LEXER_SAMPLE_INTERVAL = 16;
+
+    /* Class fields */
+    private final boolean enabled;
+
+    private Phase currentPhase = null;
+    private long phaseStartNanos;
+    private long phaseStartAllocatedBytes;
+    private final long[] nanos = new long[Phase.values().length];
+    private final long[] allocatedBytes = new long[Phase.values().length];
+
+    // Tokens scanned by the parser, and the time and the allocations of the measured ones
+    private long scannedTokens = 0, sampledTokens = 0;
+    private long sampledLexerNanos = 0, sampledLexerAllocatedBytes = 0;
+    private long sampleStartNanos, sampleStartAllocatedBytes;
+
+    private long tokens = 0;
+    private long nodes = 0;
+    private int errorRecoveries = 0;
+    private long symbolsInserted = 0;
+    private long lookups = 0;
+    private int semanticErrors = 0;
+
+    // Names and code sizes (before the peephole optimization) of the generated methods, in the order of generation
+    private final List<String> methodNames = new ArrayList<>();
+    private final List<Integer> methodBytes = new ArrayList<>();
+    private final Map<RuntimeHelper, Integer> helperBytes = new EnumMap<>(RuntimeHelper.class);
+    private int codeBytes = 0;
+    private boolean cacheHit = false;
+
+    public CompilationMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationMeasuringBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) bean;
+        return allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled() ? allocationBean : null;
+    }
+
+    private static long currentThreadAllocatedBytes() {
+        return threadBean != null ? threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    }
+
+    /* Methods */
+
+    /**
+     * Ends the measurement of the current phase (if any) and starts measuring 'phase' (nothing if null).
+     *
+     * @return Returns the phase measured before, so that it can be resumed by passing it back (null if disabled).
+     */
+    public Phase enterPhase(Phase phase) {
+        if (!enabled) return null;
+
+        long now = System.nanoTime();
+        long allocated = currentThreadAllocatedBytes();
+        Phase previousPhase = currentPhase;
+        if (previousPhase != null) {
+            nanos[previousPhase.ordinal()] += now - phaseStartNanos;
+            allocatedBytes[previousPhase.ordinal()] += allocated - phaseStartAllocatedBytes;
+        }
+
+        currentPhase = phase;
+        phaseStartNanos = now;
+        phaseStartAllocatedBytes = allocated;
+        return previousPhase;
+    }
+
+    /**
+     * Called by the parser before it scans a token.
+     *
+     * @return Returns true if the scan should be measured ('startLexerSample' and 'endLexerSample' around it).
+     */
+    public boolean sampleNextToken() {
+        return enabled && scannedTokens++ % LEXER_SAMPLE_INTERVAL == 0;
+    }
+
+    public void startLexerSample() {
+        sampleStartAllocatedBytes = currentThreadAllocatedBytes();
+        sampleStartNanos = System.nanoTime();
+    }
+
+    public void endLexerSample() {
+        long now = System.nanoTime();
+        sampledLexerNanos += now - sampleStartNanos;
+        sampledLexerAllocatedBytes += currentThreadAllocatedBytes() - sampleStartAllocatedBytes;
+        sampledTokens++;
+    }
+
+    public void addToken() {
+        tokens++;
+    }
+
+    public void addNodes(long count) {
+        nodes += count;
+    }
+
+    public void addErrorRecovery() {
+        errorRecoveries++;
+    }
+
+    public void addSymbolInserted() {
+        symbolsInserted++;
+    }
+
+    public void addLookup() {
+        lookups++;
+    }
+
+    /**
+     * Adds the symbol table counters of a method analyzed in parallel (see 'SymbolTable.fork').
+     */
+    public void addSymbolTableCounters(CompilationMetrics methodMetrics) {
+        symbolsInserted += methodMetrics.symbolsInserted;
+        lookups += methodMetrics.lookups;
+    }
+
+    public void addSemanticError() {
+        semanticErrors++;
+    }
+
+    public void addMethod(String name, int bytes) {
+        methodNames.add(name);
+        methodBytes.add(bytes);
+    }
+
+    public void addHelper(RuntimeHelper helper, int bytes) {
+        helperBytes.merge(helper, bytes, Integer::sum); // A large program may have several copies of a helper
+    }
+
+    /**
+     * Returns the metrics as a JSON object (the times in nanoseconds), e.g. for the report written next to the object file.
+     */
+    public String toJson(String sourceName, boolean success) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"source\": ").append(jsonString(sourceName)).append(",\n");
+        json.append("  \"success\": ").append(success).append(",\n");
+        json.append("  \"cacheHit\": ").append(cacheHit).append(",\n");
+        json.append("  \"measured\": ").append(enabled).append(",\n");
+        json.append("  \"totalNanos\": ").append(getTotalNanos()).append(",\n");
+        json.append("  \"totalAllocatedBytes\": ").append(getTotalAllocatedBytes()).append(",\n");
+
+        appendPhase(json, Phase.LEXING).append(",\n    \"tokens\": ").append(tokens).append("\n  },\n");
+        appendPhase(json, Phase.PARSING).append(",\n    \"nodes\": ").append(nodes)
+                .append(",\n    \"errorRecoveries\": ").append(errorRecoveries).append("\n  },\n");
+        appendPhase(json, Phase.SEMANTIC_ANALYSIS).append(",\n    \"symbolsInserted\": ").append(symbolsInserted)
+                .append(",\n    \"lookups\": ").append(lookups)
+                .append(",\n    \"errors\": ").append(semanticErrors).append("\n  },\n");
+
+        appendPhase(json, Phase.CODE_GENERATION).append(",\n    \"methods\": [");
+        for (int i = 0; i < methodNames.size(); i++) {
+            json.append(i == 0 ? "\n" : ",\n").append("      {\"name\": ").append(jsonString(methodNames.get(i)))
+                    .append(", \"bytes\": ").append(methodBytes.get(i)).append('}');
+        }
+        json.append(methodNames.isEmpty() ? "]" : "\n    ]").append(",\n    \"helpers\": [");
+        boolean first = true;
+        for (Map.Entry<RuntimeHelper, Integer> helper : helperBytes.entrySet()) {
+            json.append(first ? "\n" : ",\n").append("      {\"name\": ").append(jsonString(helper.getKey().name()))
+                    .append(", \"bytes\": ").append(helper.getValue()).append('}');
+            first = false;
+        }
+        json.append(helperBytes.isEmpty() ? "]" : "\n    ]").append("\n  },\n");
+
+        appendPhase(json, Phase.OBJECT_FILE).append(",\n    \"codeBytes\": ").append(codeBytes).append("\n  }\n");
+        return json.append("}\n").toString();
+    }
+
+    private StringBuilder appendPhase(StringBuilder json, Phase phase) {
+        return json.append("  \"").append(phase.jsonName).append("\": {\n")
+                .append("    \"nanos\": ").append(getNanos(phase)).append(",\n")
+                .append("    \"allocatedBytes\": ").append(getAllocatedBytes(phase));
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') quoted.append('\\').append(c);
+            else if (c < 0x20) quoted.append(String.format("\\u%04x", (int) c));
+            else quoted.append(c);
+        }
+        return quoted.append('"').toString();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder("Compilation metrics:");
+        for (Phase phase : Phase.values()) {
+            summary.append(' ').append(phase.jsonName).append('=').append(getNanos(phase) / 1000).append(" us");
+        }
+        return summary.append(", tokens=").append(tokens).append(", nodes=").append(nodes)
+                .append(", symbols=").append(symbolsInserted).append(", lookups=").append(lookups)
+                .append(", code=").append(codeBytes).append(" bytes").toString();
+    }
+
+    /* Getters and setters */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getNanos(Phase phase) {
+        return attributeLexer(phase, nanos, sampledLexerNanos);
+    }
+
+    public long getAllocatedBytes(Phase phase) {
+        return threadBean != null ? attributeLexer(phase, allocatedBytes, sampledLexerAllocatedBytes) : -1;
+    }
+
+    /**
+     * Moves the extrapolated share of the lexer from the parsing phase (which it runs in) to the lexing phase.
+     */
+    private long attributeLexer(Phase phase, long[] measured, long sampled) {
+        long lexer = sampledTokens > 0 ? Math.min(sampled * scannedTokens / sampledTokens, measured[Phase.PARSING.ordinal()]) : 0;
+        switch (phase) {
+            case LEXING: return measured[phase.ordinal()] + lexer;
+            case PARSING: return measured[phase.ordinal()] - lexer;
+            default: return measured[phase.ordinal()];
+        }
+    }
+
+    public long getTotalNanos() {
+        long total = 0;
+        for (long phaseNanos : nanos) total += phaseNanos;
+        return total;
+    }
+
+    public long getTotalAllocatedBytes() {
+        if (threadBean == null) return -1;
+
+        long total = 0;
+        for (long phaseBytes : allocatedBytes) total += phaseBytes;
+        return total;
+    }
+
+    public long getTokens() {
+        return tokens;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public int getErrorRecoveries() {
+        return errorRecoveries;
+    }
+
+    public long getSymbolsInserted() {
+        return symbolsInserted;
+    }
+
+    public long getLookups() {
+        return lookups;
+    }
+
+    public int getSemanticErrors() {
+        return semanticErrors;
+    }
+
+    public List<String> getMethodNames() {
+        return methodNames;
+    }
+
+    public List<Integer> getMethodBytes() {
+        return methodBytes;
+    }
+
+    public Map<RuntimeHelper, Integer> getHelperBytes() {
+        return helperBytes;
+    }
+
+    public int getCodeBytes() {
+        return codeBytes;
+    }
+
+    public void setCodeBytes(int codeBytes) {
+        this.codeBytes = codeBytes;
+    }
+
+    public boolean isCacheHit() {
+        return cacheHit;
+    }
+
+    public void setCacheHit(boolean cacheHit) {
+        this.cacheHit = cacheHit;
+    }
+}
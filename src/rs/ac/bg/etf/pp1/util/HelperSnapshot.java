@@ -0,0 +1,102 @@
+package rs.ac.bg.etf.pp1.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import rs.ac.bg.etf.pp1.CompilationContext;
+import rs.ac.bg.etf.pp1.CompilerOptions;
+import rs.etf.pp1.mj.runtime.Code;
+
+/**
+ * Precompiled code of all runtime helpers, copied into the code buffer instead of generating the helpers again.
+ * <p>
+ * The offsets of jumps and calls are relative to the address of the instruction, so the code of a helper does not
+ * depend on where it is placed. The only exceptions are the calls from one helper into another (the combined array
+ * access check calls the members access check), which are recorded as relocations and patched after the copy.
+ * <p>
+ * The code of the helpers depends only on the unroll factor of 'findAny' and 'findAll', so one snapshot per
+ * unroll factor is built (on first use) and shared by all compilations.
+ */
+public class HelperSnapshot {
+    /**
+     * A call at 'offset' (from the start of the helper) into another helper.
+     */
+    private static class Relocation {
+        final int offset;
+        final RuntimeHelper target;
+
+        Relocation(int offset, RuntimeHelper target) {
+            this.offset = offset;
+            this.target = target;
+        }
+    }
+
+    /* Class fields */
+    private static final ConcurrentMap<Integer, HelperSnapshot> snapshots = new ConcurrentHashMap<>();
+
+    private final Map<RuntimeHelper, byte[]> helperCode = new EnumMap<>(RuntimeHelper.class);
+    private final Map<RuntimeHelper, List<Relocation>> relocations = new EnumMap<>(RuntimeHelper.class);
+
+    private HelperSnapshot(int findUnrollFactor) {
+        CompilationContext context = new CompilationContext(new CompilerOptions().setFindUnrollFactor(findUnrollFactor));
+        CodeBuffer code = context.getCode();
+
+        // Generate all helpers one after another, in the order of their declaration
+        Map<RuntimeHelper, Integer> ends = new EnumMap<>(RuntimeHelper.class);
+        for (RuntimeHelper helper : RuntimeHelper.values()) {
+            CommonUtils.setHelperAddress(context, helper, code.pc);
+            CommonUtils.generateHelper(context, helper);
+            ends.put(helper, code.pc);
+        }
+        if (code.isErrorDetected()) throw new IllegalStateException(code.getErrorMessage());
+
+        for (RuntimeHelper helper : RuntimeHelper.values()) {
+            int start = CommonUtils.getHelperAddress(context, helper), end = ends.get(helper);
+            helperCode.put(helper, Arrays.copyOfRange(code.buf, start, end));
+
+            // Find the calls that leave the helper
+            List<Relocation> helperRelocations = new ArrayList<>();
+            for (int address = start; address < end; address += PeepholeOptimizer.instructionLength(code.buf[address] & 0xFF)) {
+                if ((code.buf[address] & 0xFF) != Code.call) continue;
+
+                int target = address + code.get2(address + 1);
+                if (target >= start && target < end) continue;
+                helperRelocations.add(new Relocation(address - start, findHelper(context, target)));
+            }
+            relocations.put(helper, helperRelocations);
+        }
+    }
+
+    private static RuntimeHelper findHelper(CompilationContext context, int address) {
+        for (RuntimeHelper helper : RuntimeHelper.values()) {
+            if (CommonUtils.getHelperAddress(context, helper) == address) return helper;
+        }
+        throw new IllegalStateException("Call to an address that is not a runtime helper: " + address);
+    }
+
+    /**
+     * Returns the snapshot of the helpers generated with the given unroll factor of 'findAny' and 'findAll'.
+     */
+    public static HelperSnapshot forUnrollFactor(int findUnrollFactor) {
+        return snapshots.computeIfAbsent(findUnrollFactor, HelperSnapshot::new);
+    }
+
+    /**
+     * Copies the code of a helper to the current address. The helpers it calls must already have their addresses.
+     */
+    public void copy(CompilationContext context, RuntimeHelper helper) {
+        CodeBuffer code = context.getCode();
+        int start = code.pc;
+
+        code.put(helperCode.get(helper));
+        for (Relocation relocation : relocations.get(helper)) {
+            int callAddress = start + relocation.offset;
+            code.put2(callAddress + 1, CommonUtils.getHelperAddress(context, relocation.target) - callAddress);
+        }
+    }
+}
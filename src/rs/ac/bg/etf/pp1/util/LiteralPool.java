@@ -0,0 +1,52 @@
+package rs.ac.bg.etf.pp1.util;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import rs.etf.pp1.symboltable.concepts.Obj;
+import rs.etf.pp1.symboltable.concepts.Struct;
+
+/**
+ * Unnamed constants ('$') used by the code generator, shared by all occurrences of the same literal.
+ * <p>
+ * The constants are not inserted into the symbol table, so its scopes do not grow with the number of literals
+ * in the program (and lookups and dumps do not slow down). The returned object nodes can be passed to
+ * 'CodeBuffer.load' like any other constant, but they must not be modified.
+ * <p>
+ * Every compilation has its own pool ('CompilationContext.getLiteralPool').
+ */
+public class LiteralPool {
+    /* Class fields */
+    private static final String LITERAL_NAME = "$";
+
+    // Constants by type (compared by reference, like everywhere in the symbol table) and value
+    private final Map<Struct, Map<Integer, Obj>> literals = new IdentityHashMap<>();
+    private int size = 0;
+
+    /**
+     * Returns the global unnamed constant of the given type and value.
+     */
+    public Obj get(Struct type, int value) {
+        Map<Integer, Obj> values = literals.get(type);
+        if (values == null) {
+            values = new HashMap<>();
+            literals.put(type, values);
+        }
+
+        Obj literal = values.get(value);
+        if (literal == null) {
+            literal = new Obj(Obj.Con, LITERAL_NAME, type, value, 0);
+            values.put(value, literal);
+            size++;
+        }
+        return literal;
+    }
+
+    /**
+     * Returns the number of distinct literals in the pool.
+     */
+    public int size() {
+        return size;
+    }
+}
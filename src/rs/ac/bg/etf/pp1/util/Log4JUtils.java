@@ -4,6 +4,7 @@ import java.io.File;
 import java.net.URL;
 
 import org.apache.log4j.Appender;
+import org.apache.log4j.AsyncAppender;
 import org.apache.log4j.FileAppender;
 import org.apache.log4j.Logger;
 
@@ -14,15 +15,25 @@ public class Log4JUtils {
         return logs;
     }
 
+    // Name of the system property that selects the logging profile: '-Dmj.log.profile=quiet' uses 'log4j-quiet.xml'
+    public static final String PROFILE_PROPERTY = "mj.log.profile";
+
     // Finds the logger configuration file
     public URL findLoggerConfigFile() {
-        return Thread.currentThread().getContextClassLoader().getResource("log4j.xml");
+        String profile = System.getProperty(PROFILE_PROPERTY);
+        String fileName = (profile == null || profile.isEmpty()) ? "log4j.xml" : "log4j-" + profile + ".xml";
+
+        return Thread.currentThread().getContextClassLoader().getResource(fileName);
     }
 
     // Prepares the log file
     public void prepareLogFile(Logger root) {
         Appender appender = root.getAppender("file");
 
+        // The file appender can also be wrapped by an asynchronous appender
+        if (appender == null && root.getAppender("async") instanceof AsyncAppender)
+            appender = ((AsyncAppender) root.getAppender("async")).getAppender("file");
+
         if (!(appender instanceof FileAppender))
             return;
         FileAppender fAppender = (FileAppender) appender;
@@ -0,0 +1,152 @@
+package rs.ac.bg.etf.pp1.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a source file through a read-only memory mapping, decoding UTF-8 (and therefore ASCII) directly
+ * into the buffer passed to 'read'.
+ * <p>
+ * The lexer reads into its own character buffer, so the source code is copied only once: from the mapped pages
+ * into the lexer buffer, without the intermediate byte and character buffers of 'FileReader' and 'BufferedReader'.
+ * The platform charset is not used. Malformed byte sequences are replaced by U+FFFD, and a leading byte order mark
+ * is skipped.
+ * <p>
+ * Files larger than 2 GB are mapped in consecutive regions. The mapping is released by the garbage collector
+ * after the reader is closed (Java 8 has no public way to unmap a buffer).
+ */
+public class MappedSourceReader extends Reader {
+    /* Class fields */
+    private static final int MAX_REGION_SIZE = Integer.MAX_VALUE;
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final FileChannel channel;
+    private final long fileSize;
+
+    private MappedByteBuffer region;
+    private long regionStart;
+
+    // Low surrogate of a 4-byte sequence that did not fit into the previous 'read'
+    private char pendingLowSurrogate = 0;
+
+    public MappedSourceReader(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            fileSize = channel.size();
+            map(0);
+
+            // Skips the UTF-8 byte order mark
+            if (region.remaining() >= 3 && (region.get(0) & 0xFF) == 0xEF && (region.get(1) & 0xFF) == 0xBB
+                    && (region.get(2) & 0xFF) == 0xBF)
+                region.position(3);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (region == null) throw new IOException("Stream closed");
+        if (len == 0) return 0;
+
+        int n = 0;
+        if (pendingLowSurrogate != 0) {
+            cbuf[off + n++] = pendingLowSurrogate;
+            pendingLowSurrogate = 0;
+        }
+
+        MappedByteBuffer in = region;
+        while (n < len) {
+            // ASCII fast path (absolute reads, the position is only updated once)
+            int position = in.position();
+            int end = position + Math.min(in.remaining(), len - n);
+            int out = off + n;
+            byte b;
+            while (position < end && (b = in.get(position)) >= 0) {
+                cbuf[out++] = (char) b;
+                position++;
+            }
+            in.position(position);
+            n = out - off;
+            if (n == len) break;
+
+            if (!in.hasRemaining()) {
+                if (regionStart + in.limit() >= fileSize) break;
+                map(regionStart + in.limit());
+                in = region;
+                continue;
+            }
+
+            // Multibyte sequence; the region is remapped from its first byte if the sequence crosses the region end
+            int start = in.position();
+            int lead = in.get(start) & 0xFF;
+            int length = lead >= 0xF0 ? 4 : lead >= 0xE0 ? 3 : lead >= 0xC0 ? 2 : 1;
+            if (start + length > in.limit() && regionStart + in.limit() < fileSize) {
+                map(regionStart + start);
+                in = region;
+                continue;
+            }
+
+            int codePoint = decode(in, start, length);
+            if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                cbuf[off + n++] = (char) codePoint;
+            } else {
+                cbuf[off + n++] = Character.highSurrogate(codePoint);
+                if (n < len) cbuf[off + n++] = Character.lowSurrogate(codePoint);
+                else pendingLowSurrogate = Character.lowSurrogate(codePoint);
+            }
+        }
+
+        return n == 0 ? -1 : n;
+    }
+
+    /**
+     * Decodes the sequence of 'length' bytes at 'start' and moves the position after it
+     * (or only after the lead byte, if the sequence is malformed).
+     */
+    private static int decode(MappedByteBuffer in, int start, int length) {
+        int lead = in.get(start) & 0xFF;
+        if (length == 1 || lead > 0xF4 || start + length > in.limit()) {
+            in.position(start + 1);
+            return REPLACEMENT;
+        }
+
+        int codePoint = lead & (0x3F >> (length - 1));
+        for (int i = 1; i < length; i++) {
+            int b = in.get(start + i) & 0xFF;
+            if ((b & 0xC0) != 0x80) {
+                in.position(start + 1);
+                return REPLACEMENT;
+            }
+            codePoint = (codePoint << 6) | (b & 0x3F);
+        }
+
+        // Rejects overlong encodings, surrogates and code points above U+10FFFF
+        int minimum = length == 2 ? 0x80 : length == 3 ? 0x800 : Character.MIN_SUPPLEMENTARY_CODE_POINT;
+        if (codePoint < minimum || codePoint > Character.MAX_CODE_POINT
+                || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+            in.position(start + 1);
+            return REPLACEMENT;
+        }
+
+        in.position(start + length);
+        return codePoint;
+    }
+
+    private void map(long position) throws IOException {
+        long size = Math.min(fileSize - position, MAX_REGION_SIZE);
+        region = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        regionStart = position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        region = null;
+        channel.close();
+    }
+}
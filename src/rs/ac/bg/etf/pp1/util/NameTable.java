@@ -0,0 +1,116 @@
+package rs.ac.bg.etf.pp1.util;
+
+/**
+ * Table of the identifiers interned during one compilation (see 'CompilationContext.getNameTable').
+ * <p>
+ * The lexer looks identifiers up directly in its character buffer, so a name that repeats in the source code
+ * is only turned into a 'String' the first time it is seen. Every occurrence of the same name is then represented
+ * by the same 'String' instance (whose hash code is also computed only once). The table belongs to its compilation,
+ * so a long-running process (e.g. the compile server) does not keep the names of the programs it has compiled.
+ * <p>
+ * Only the lexer of its compilation writes to the table, so it is not thread-safe: a plain array of chained buckets.
+ */
+public final class NameTable {
+    /* Names used by the compiler itself ('MAIN.equals(name)' succeeds at its reference check for interned names) */
+    public static final String MAIN = "main";
+    private static final String[] PREDEFINED_NAMES = {MAIN, "int", "char", "bool", "eol", "null", "chr", "ord", "len"};
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final class Entry {
+        final String name;
+        final int hash;
+        Entry next;
+
+        Entry(String name, int hash, Entry next) {
+            this.name = name;
+            this.hash = hash;
+            this.next = next;
+        }
+    }
+
+    /* Class fields */
+    private Entry[] buckets = new Entry[INITIAL_CAPACITY];
+    private int size = 0;
+
+    public NameTable() {
+        for (String name : PREDEFINED_NAMES) {
+            intern(name);
+        }
+    }
+
+    /**
+     * Returns the unique 'String' instance for the characters 'chars[offset, offset + length)'.
+     * A new 'String' is only created the first time a name is interned.
+     */
+    public String intern(char[] chars, int offset, int length) {
+        int hash = hash(chars, offset, length);
+
+        String name = find(chars, offset, length, hash);
+        return name != null ? name : insert(chars, offset, length, hash, null);
+    }
+
+    /**
+     * Returns the unique instance equal to 'name' ('name' itself, if it has not been interned before).
+     */
+    public String intern(String name) {
+        char[] chars = name.toCharArray();
+        int hash = name.hashCode();
+
+        String interned = find(chars, 0, chars.length, hash);
+        return interned != null ? interned : insert(chars, 0, chars.length, hash, name);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private String insert(char[] chars, int offset, int length, int hash, String name) {
+        if (name == null) name = new String(chars, offset, length);
+        if (++size > buckets.length * 3 / 4) resize();
+
+        int index = hash & (buckets.length - 1);
+        buckets[index] = new Entry(name, hash, buckets[index]);
+        return name;
+    }
+
+    private String find(char[] chars, int offset, int length, int hash) {
+        for (Entry e = buckets[hash & (buckets.length - 1)]; e != null; e = e.next) {
+            if (e.hash == hash && matches(e.name, chars, offset, length)) return e.name;
+        }
+        return null;
+    }
+
+    private static boolean matches(String name, char[] chars, int offset, int length) {
+        if (name.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != chars[offset + i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Same value as 'String.hashCode()' for the given characters.
+     */
+    private static int hash(char[] chars, int offset, int length) {
+        int h = 0;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + chars[i];
+        }
+        return h;
+    }
+
+    private void resize() {
+        Entry[] resized = new Entry[buckets.length * 2];
+        for (Entry bucket : buckets) {
+            Entry next;
+            for (Entry e = bucket; e != null; e = next) {
+                next = e.next;
+                int index = e.hash & (resized.length - 1);
+                e.next = resized[index];
+                resized[index] = e;
+            }
+        }
+        buckets = resized;
+    }
+}
@@ -0,0 +1,378 @@
+package rs.ac.bg.etf.pp1.util;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import rs.ac.bg.etf.pp1.CompilationContext;
+import rs.etf.pp1.mj.runtime.Code;
+
+/**
+ * Peephole optimizer that rewrites the generated code in the code buffer (between 0 and 'pc').
+ * <p>
+ * The code is decoded into instructions, known instruction sequences are replaced by shorter ones,
+ * and the code is laid out again: the relative offsets of jumps and calls and 'mainPc' are adjusted to the new
+ * addresses. A sequence is only rewritten if no jump or call targets an instruction inside it.
+ * <p>
+ * Rewritten patterns:
+ * - INC_LOCAL: 'load x; const c; add (sub); store x' into 'inc x c' (for a local variable 'x' and -128 <= c <= 127),
+ * - ARRAY_ACCESS_CHECK: 'dup2; pop; call membersCheck; dup2; call indexCheck' into 'dup2; call accessCheck'
+ * (the entry point generated in front of the index check, which performs both checks),
+ * - JUMP_TO_JUMP: a jump to an unconditional jump is redirected to the final target,
+ * - JUMP_TO_RETURN: 'jmp' to 'exit; return' is replaced by 'exit; return',
+ * - JUMP_TO_NEXT: 'jmp' to the next instruction is removed.
+ */
+public class PeepholeOptimizer {
+    /**
+     * Rewritten patterns, with the estimated number of executed instructions that one rewrite saves
+     * (the array access check only moves instructions into the helper function, so it only saves space).
+     */
+    public enum Pattern {
+        INC_LOCAL(3),
+        ARRAY_ACCESS_CHECK(0),
+        JUMP_TO_JUMP(1),
+        JUMP_TO_RETURN(1),
+        JUMP_TO_NEXT(1);
+
+        private final int instructionsSaved;
+
+        Pattern(int instructionsSaved) {
+            this.instructionsSaved = instructionsSaved;
+        }
+    }
+
+    /**
+     * Number of rewrites, saved bytes and estimated saved (executed) instructions for every pattern.
+     */
+    public static class Report {
+        private final Map<Pattern, int[]> counts = new EnumMap<>(Pattern.class);
+
+        private void add(Pattern pattern, int bytesSaved) {
+            int[] count = counts.computeIfAbsent(pattern, p -> new int[3]);
+            count[0]++;
+            count[1] += bytesSaved;
+            count[2] += pattern.instructionsSaved;
+        }
+
+        public int getRewrites(Pattern pattern) {
+            return counts.containsKey(pattern) ? counts.get(pattern)[0] : 0;
+        }
+
+        public int getBytesSaved(Pattern pattern) {
+            return counts.containsKey(pattern) ? counts.get(pattern)[1] : 0;
+        }
+
+        public int getInstructionsSaved(Pattern pattern) {
+            return counts.containsKey(pattern) ? counts.get(pattern)[2] : 0;
+        }
+
+        public int getTotalBytesSaved() {
+            int total = 0;
+            for (int[] count : counts.values()) total += count[1];
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Peephole optimization saved " + getTotalBytesSaved() + " bytes");
+            for (Map.Entry<Pattern, int[]> entry : counts.entrySet()) {
+                int[] count = entry.getValue();
+                sb.append("\n    ").append(entry.getKey()).append(": ").append(count[0]).append(" rewrites, ")
+                        .append(count[1]).append(" bytes, ~").append(count[2]).append(" instructions");
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * A decoded instruction; 'target' is the original absolute target address of a jump or call.
+     */
+    private static class Instruction {
+        final int address;
+        final byte[] bytes;
+        int target = -1;
+
+        Instruction(int address, byte[] bytes) {
+            this.address = address;
+            this.bytes = bytes;
+        }
+
+        int opcode() {
+            return bytes[0] & 0xFF;
+        }
+
+        boolean isJump() {
+            return opcode() == Code.jmp || (opcode() >= Code.jcc && opcode() < Code.jcc + 6);
+        }
+
+        boolean hasTarget() {
+            return isJump() || opcode() == Code.call;
+        }
+    }
+
+    /* Class fields */
+    private final CompilationContext context;
+    private final CodeBuffer code;
+    private final Report report = new Report();
+
+    private List<Instruction> instructions;
+    private boolean[] labels;
+
+    public PeepholeOptimizer(CompilationContext context) {
+        this.context = context;
+        this.code = context.getCode();
+    }
+
+    /**
+     * Optimizes the code buffer of the compilation in place.
+     * The code is left unchanged if it contains an error (e.g. it does not fit into the buffer).
+     */
+    public Report optimize() {
+        if (code.isErrorDetected() || !decode()) return report;
+
+        findLabels();
+        rewrite();
+        layOut();
+        return report;
+    }
+
+    /* Decoding */
+
+    private boolean decode() {
+        instructions = new ArrayList<>();
+        for (int address = 0; address < code.pc; ) {
+            int length = instructionLength(code.buf[address] & 0xFF);
+            if (length == 0 || address + length > code.pc) return false;
+
+            byte[] bytes = new byte[length];
+            System.arraycopy(code.buf, address, bytes, 0, length);
+            Instruction instruction = new Instruction(address, bytes);
+            if (instruction.hasTarget()) instruction.target = address + code.get2(address + 1);
+
+            instructions.add(instruction);
+            address += length;
+        }
+        return true;
+    }
+
+    /**
+     * @return Returns the length of the instruction in bytes, or 0 for an opcode this compiler does not generate.
+     */
+    public static int instructionLength(int opcode) {
+        switch (opcode) {
+            case Code.load: case Code.store: case Code.newarray: case Code.trap:
+                return 2;
+            case Code.getstatic: case Code.putstatic: case Code.getfield: case Code.putfield:
+            case Code.inc: case Code.new_: case Code.jmp: case Code.call: case Code.enter:
+                return 3;
+            case Code.const_:
+                return 5;
+            case Code.invokevirtual:
+                return 0; // Not generated by this compiler
+            default:
+                if (opcode >= Code.jcc && opcode < Code.jcc + 6) return 3;
+                return (opcode >= Code.load_n && opcode <= Code.dup_x2) ? 1 : 0;
+        }
+    }
+
+    /**
+     * Marks the addresses that execution can reach other than from the previous instruction.
+     */
+    private void findLabels() {
+        labels = new boolean[code.pc + 1];
+        for (Instruction instruction : instructions) {
+            if (instruction.hasTarget() && instruction.target >= 0 && instruction.target <= code.pc)
+                labels[instruction.target] = true;
+        }
+        if (code.mainPc >= 0 && code.mainPc <= code.pc) labels[code.mainPc] = true;
+
+        // Entry points of the helper functions (the combined array access check is only called after rewriting)
+        for (Map<RuntimeHelper, Integer> group : context.getHelperGroups()) {
+            for (int address : group.values()) {
+                if (address >= 0 && address <= code.pc) labels[address] = true;
+            }
+        }
+    }
+
+    /* Rewriting */
+
+    private void rewrite() {
+        List<Instruction> result = new ArrayList<>(instructions.size());
+
+        for (int i = 0; i < instructions.size(); ) {
+            int consumed = rewriteIncLocal(i, result);
+            if (consumed == 0) consumed = rewriteArrayAccessCheck(i, result);
+            if (consumed == 0) {
+                result.add(instructions.get(i));
+                consumed = 1;
+            }
+            i += consumed;
+        }
+        instructions = result;
+
+        rewriteJumps();
+    }
+
+    private int rewriteIncLocal(int i, List<Instruction> result) {
+        if (!isStraightLine(i, 4)) return 0;
+
+        int local = localIndex(instructions.get(i), Code.load, Code.load_n);
+        Integer constant = constantValue(instructions.get(i + 1));
+        int operator = instructions.get(i + 2).opcode();
+        int stored = localIndex(instructions.get(i + 3), Code.store, Code.store_n);
+
+        if (local < 0 || local > Byte.MAX_VALUE || local != stored || constant == null) return 0;
+        if (operator != Code.add && operator != Code.sub) return 0;
+
+        int delta = operator == Code.add ? constant : -constant;
+        if (delta < Byte.MIN_VALUE || delta > Byte.MAX_VALUE) return 0;
+
+        result.add(new Instruction(instructions.get(i).address, new byte[]{(byte) Code.inc, (byte) local, (byte) delta}));
+        report.add(Pattern.INC_LOCAL, sizeOf(i, 4) - 3);
+        return 4;
+    }
+
+    private int rewriteArrayAccessCheck(int i, List<Instruction> result) {
+        if (!isStraightLine(i, 5)) return 0;
+
+        if (instructions.get(i).opcode() != Code.dup2 || instructions.get(i + 1).opcode() != Code.pop
+                || instructions.get(i + 2).opcode() != Code.call || instructions.get(i + 3).opcode() != Code.dup2
+                || instructions.get(i + 4).opcode() != Code.call)
+            return 0;
+
+        // Both checks must be called in the same group of helpers, whose combined check is generated in front of its index check
+        int accessCheckAddress = -1;
+        for (Map<RuntimeHelper, Integer> group : context.getHelperGroups()) {
+            if (isCall(instructions.get(i + 2), group.get(RuntimeHelper.ARRAY_MEMBERS_ACCESS_CHECK))
+                    && isCall(instructions.get(i + 4), group.get(RuntimeHelper.ARRAY_INDEX_CHECK))
+                    && group.containsKey(RuntimeHelper.ARRAY_ACCESS_CHECK)) {
+                accessCheckAddress = group.get(RuntimeHelper.ARRAY_ACCESS_CHECK);
+            }
+        }
+        if (accessCheckAddress < 0) return 0;
+
+        Instruction call = new Instruction(instructions.get(i + 1).address, new byte[]{(byte) Code.call, 0, 0});
+        call.target = accessCheckAddress;
+
+        result.add(instructions.get(i));
+        result.add(call);
+        report.add(Pattern.ARRAY_ACCESS_CHECK, sizeOf(i, 5) - 4);
+        return 5;
+    }
+
+    private void rewriteJumps() {
+        Map<Integer, Instruction> byAddress = new HashMap<>();
+        for (Instruction instruction : instructions) byAddress.put(instruction.address, instruction);
+
+        List<Instruction> result = new ArrayList<>(instructions.size());
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+            if (!instruction.isJump()) {
+                result.add(instruction);
+                continue;
+            }
+
+            // Follows a chain of unconditional jumps (at most as many steps as there are instructions, in case of a cycle)
+            Instruction target = byAddress.get(instruction.target);
+            for (int steps = 0; target != null && target.opcode() == Code.jmp && target != instruction
+                    && target.target != instruction.target && steps < instructions.size(); steps++) {
+                instruction.target = target.target;
+                target = byAddress.get(instruction.target);
+                report.add(Pattern.JUMP_TO_JUMP, 0);
+            }
+
+            if (instruction.opcode() == Code.jmp) {
+                Instruction next = i + 1 < instructions.size() ? instructions.get(i + 1) : null;
+
+                if (next != null && instruction.target == next.address) {
+                    report.add(Pattern.JUMP_TO_NEXT, instruction.bytes.length);
+                    continue;
+                }
+
+                Instruction afterTarget = target != null ? byAddress.get(target.address + target.bytes.length) : null;
+                if (target != null && target.opcode() == Code.exit && afterTarget != null && afterTarget.opcode() == Code.return_) {
+                    result.add(new Instruction(instruction.address, new byte[]{(byte) Code.exit}));
+                    result.add(new Instruction(instruction.address, new byte[]{(byte) Code.return_}));
+                    report.add(Pattern.JUMP_TO_RETURN, instruction.bytes.length - 2);
+                    continue;
+                }
+            }
+            result.add(instruction);
+        }
+        instructions = result;
+    }
+
+    /* Layout */
+
+    private void layOut() {
+        // Maps every original address to the new address of the first instruction at or after it
+        int[] newAddress = new int[code.pc + 1];
+        int pc = 0;
+        int index = 0;
+        for (int address = 0; address <= code.pc; address++) {
+            while (index < instructions.size() && instructions.get(index).address < address) {
+                pc += instructions.get(index).bytes.length;
+                index++;
+            }
+            newAddress[address] = pc;
+        }
+
+        pc = 0;
+        for (Instruction instruction : instructions) {
+            System.arraycopy(instruction.bytes, 0, code.buf, pc, instruction.bytes.length);
+            if (instruction.hasTarget()) {
+                int offset = newAddress[instruction.target] - pc;
+                code.buf[pc + 1] = (byte) (offset >> 8);
+                code.buf[pc + 2] = (byte) offset;
+            }
+            pc += instruction.bytes.length;
+        }
+
+        for (int address = pc; address < code.pc; address++) code.buf[address] = 0;
+        code.pc = pc;
+        if (code.mainPc >= 0) code.mainPc = newAddress[code.mainPc];
+    }
+
+    /* Utility methods */
+
+    /**
+     * Checks that 'count' instructions starting at 'i' exist and that none of them, except the first one, is a label.
+     */
+    private boolean isStraightLine(int i, int count) {
+        if (i + count > instructions.size()) return false;
+        for (int j = i + 1; j < i + count; j++) {
+            if (labels[instructions.get(j).address]) return false;
+        }
+        return true;
+    }
+
+    private int sizeOf(int i, int count) {
+        int size = 0;
+        for (int j = i; j < i + count; j++) size += instructions.get(j).bytes.length;
+        return size;
+    }
+
+    private static boolean isCall(Instruction instruction, Integer address) {
+        return instruction.opcode() == Code.call && address != null && instruction.target == address;
+    }
+
+    private static int localIndex(Instruction instruction, int longForm, int shortForm) {
+        int opcode = instruction.opcode();
+        if (opcode == longForm) return instruction.bytes[1] & 0xFF;
+        if (opcode >= shortForm && opcode <= shortForm + 3) return opcode - shortForm;
+        return -1;
+    }
+
+    private static Integer constantValue(Instruction instruction) {
+        int opcode = instruction.opcode();
+        if (opcode >= Code.const_n && opcode <= Code.const_n + 5) return opcode - Code.const_n;
+        if (opcode == Code.const_m1) return -1;
+        if (opcode == Code.const_) {
+            byte[] b = instruction.bytes;
+            return (b[1] << 24) | ((b[2] & 0xFF) << 16) | ((b[3] & 0xFF) << 8) | (b[4] & 0xFF);
+        }
+        return null;
+    }
+}
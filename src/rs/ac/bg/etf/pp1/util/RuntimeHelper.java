@@ -0,0 +1,20 @@
+package rs.ac.bg.etf.pp1.util;
+
+/**
+ * Functions generated by the compiler itself and called from the code of the program.
+ * <p>
+ * A helper is generated only if the program calls it, after the methods of the program (and also between the methods
+ * of a program too large for its calls to reach the end of the code, see 'CommonUtils.generateDistantRuntimeHelpers').
+ * See 'CommonUtils.generateHelperCall' and 'CommonUtils.generateRuntimeHelpers'.
+ */
+public enum RuntimeHelper {
+    PRINT_BOOL,
+    FIND_ANY,
+    FIND_ALL,
+    CHAR_FIND_ANY,
+    CHAR_FIND_ALL,
+    ARRAY_LENGTH_CHECK,
+    ARRAY_MEMBERS_ACCESS_CHECK,
+    ARRAY_ACCESS_CHECK,   // Both checks of an array access (members access and index)
+    ARRAY_INDEX_CHECK
+}
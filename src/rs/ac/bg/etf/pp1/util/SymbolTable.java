@@ -0,0 +1,182 @@
+package rs.ac.bg.etf.pp1.util;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import rs.etf.pp1.symboltable.Tab;
+import rs.etf.pp1.symboltable.concepts.*;
+import rs.etf.pp1.symboltable.visitors.DumpSymbolTableVisitor;
+import rs.etf.pp1.symboltable.visitors.SymbolTableVisitor;
+
+/**
+ * Instance-based counterpart of the static 'Tab' class from the symbol table library.
+ * <p>
+ * Every compilation owns its own scope chain, so several programs can be analyzed in the same JVM at once.
+ * The predefined structures ('Tab.intType', 'Tab.charType', 'Tab.noType', 'Tab.nullType', 'Tab.noObj') are shared,
+ * as they are never modified during compilation.
+ * <p>
+ * Array types are interned: there is one canonical 'Struct' per element type (and therefore per dimension,
+ * as the element type of a multidimensional array is itself canonical), so equal array types are the same object.
+ * <p>
+ * A table can be forked for the analysis of a method body on another thread (see 'fork'): the fork shares the current scope,
+ * which must not be modified while forks use it, and the canonical array types, which are created under a lock.
+ */
+public class SymbolTable {
+    /* Class fields */
+    private Scope currentScope = null;
+    private int currentLevel = -1;
+    private final CompilationMetrics metrics;
+
+    // Canonical array types, by element type (shared with the forks)
+    private final Map<Struct, Struct> arrayTypes;
+
+    // Symbols found by 'find', or null for all (a fork hides the ones declared after the analyzed method)
+    private final Predicate<Obj> visibleSymbols;
+
+    public SymbolTable(CompilationMetrics metrics) {
+        this(metrics, new IdentityHashMap<>(), null);
+    }
+
+    private SymbolTable(CompilationMetrics metrics, Map<Struct, Struct> arrayTypes, Predicate<Obj> visibleSymbols) {
+        this.metrics = metrics;
+        this.arrayTypes = arrayTypes;
+        this.visibleSymbols = visibleSymbols;
+    }
+
+    /* Methods */
+
+    /**
+     * Creates the universe scope with the predefined types, constants and methods (same as 'Tab.init').
+     */
+    public void init() {
+        Scope universe = currentScope = new Scope(null);
+
+        universe.addToLocals(new Obj(Obj.Type, "int", Tab.intType));
+        universe.addToLocals(new Obj(Obj.Type, "char", Tab.charType));
+        universe.addToLocals(new Obj(Obj.Con, "eol", Tab.charType, 10, 0));
+        universe.addToLocals(new Obj(Obj.Con, "null", Tab.nullType, 0, 0));
+
+        // Predefined methods 'chr', 'ord' and 'len' with their formal parameters
+        universe.addToLocals(createPredefinedMethod("chr", Tab.charType, "i", Tab.intType));
+        universe.addToLocals(createPredefinedMethod("ord", Tab.intType, "ch", Tab.charType));
+        universe.addToLocals(createPredefinedMethod("len", Tab.intType, "arr", arrayType(Tab.noType)));
+
+        currentLevel = -1;
+    }
+
+    private Obj createPredefinedMethod(String name, Struct returnType, String paramName, Struct paramType) {
+        Obj methodObj = new Obj(Obj.Meth, name, returnType, 0, 1);
+
+        openScope();
+        currentScope.addToLocals(new Obj(Obj.Var, paramName, paramType, 0, 1));
+        chainLocalSymbols(methodObj);
+        closeScope();
+
+        return methodObj;
+    }
+
+    public void openScope() {
+        currentScope = new Scope(currentScope);
+        currentLevel++;
+    }
+
+    public void closeScope() {
+        currentScope = currentScope.getOuter();
+        currentLevel--;
+    }
+
+    /**
+     * Inserts a new symbol into the current scope.
+     *
+     * @return Returns the new object node, or the existing one if the name is already declared in the current scope.
+     */
+    public Obj insert(int kind, String name, Struct type) {
+        Obj newObj = new Obj(kind, name, type, 0, currentLevel != 0 ? 1 : 0);
+        metrics.addSymbolInserted();
+
+        if (!currentScope.addToLocals(newObj)) {
+            Obj existingObj = currentScope.findSymbol(name);
+            return existingObj != null ? existingObj : Tab.noObj;
+        }
+        return newObj;
+    }
+
+    /**
+     * Searches for the name starting from the current scope towards the universe scope.
+     *
+     * @return Returns the object node of the name, or 'Tab.noObj' if the name is not declared.
+     */
+    public Obj find(String name) {
+        metrics.addLookup();
+        for (Scope scope = currentScope; scope != null; scope = scope.getOuter()) {
+            if (scope.getLocals() != null) {
+                Obj obj = scope.getLocals().searchKey(name);
+                if (obj != null && (visibleSymbols == null || visibleSymbols.test(obj))) return obj;
+            }
+        }
+        return Tab.noObj;
+    }
+
+    /**
+     * Searches for the name in the current scope only.
+     *
+     * @return Returns the object node of the name, or null if the name is not declared in the current scope.
+     */
+    public Obj findInCurrentScope(String name) {
+        metrics.addLookup();
+        return currentScope.findSymbol(name);
+    }
+
+    /**
+     * Returns the canonical array type with elements of type 'elemType', creating it on first use.
+     */
+    public Struct arrayType(Struct elemType) {
+        synchronized (arrayTypes) {
+            Struct arrayType = arrayTypes.get(elemType);
+            if (arrayType == null) {
+                arrayType = new Struct(Struct.Array, elemType);
+                arrayTypes.put(elemType, arrayType);
+            }
+            return arrayType;
+        }
+    }
+
+    /**
+     * Returns a table whose current scope is the current scope of this table, for the analysis of a method body
+     * on another thread. The scopes opened in the fork are private to it; the symbols of the shared scopes that
+     * 'visibleSymbols' rejects are skipped by 'find', as if they were not declared yet.
+     */
+    public SymbolTable fork(CompilationMetrics metrics, Predicate<Obj> visibleSymbols) {
+        SymbolTable fork = new SymbolTable(metrics, arrayTypes, visibleSymbols);
+        fork.currentScope = currentScope;
+        fork.currentLevel = currentLevel;
+        return fork;
+    }
+
+    public void chainLocalSymbols(Obj outerScopeObj) {
+        // 'Tab.noObj' is shared between compilations, so it must never receive local symbols
+        if (outerScopeObj != Tab.noObj) {
+            outerScopeObj.setLocals(currentScope.getLocals());
+        }
+    }
+
+    public void chainLocalSymbols(Struct innerClass) {
+        innerClass.setMembers(currentScope.getLocals());
+    }
+
+    public Scope currentScope() {
+        return currentScope;
+    }
+
+    /**
+     * Prints the contents of all open scopes (same output as 'Tab.dump').
+     */
+    public void dump() {
+        SymbolTableVisitor visitor = new DumpSymbolTableVisitor();
+        for (Scope scope = currentScope; scope != null; scope = scope.getOuter()) {
+            scope.accept(visitor);
+        }
+        System.out.println("=====================SYMBOL TABLE DUMP=========================\n" + visitor.getOutput());
+    }
+}
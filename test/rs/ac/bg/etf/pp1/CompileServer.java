@@ -0,0 +1,243 @@
+package rs.ac.bg.etf.pp1;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Logger;
+
+/**
+ * Long-running compiler that keeps the JVM (log4j configuration, lexer and parser tables, JIT-compiled code) warm
+ * between compilations.
+ * <p>
+ * Arguments: [--port port] [--warmup count] [--timeout seconds]
+ * - without '--port', requests are read from the standard input and responses are written to the standard output,
+ * - with '--port', the server listens on the loopback interface and serves every connection on its own thread,
+ * - '--warmup' sets how many times a built-in program is compiled before the first request (default: 200),
+ * - '--timeout' sets how long a single compilation may take before it is abandoned (default: 30).
+ * <p>
+ * Protocol (one request per line, paths must not contain spaces):
+ * - COMPILE sourcePath objPath                  compiles a source file,
+ * - INLINE objPath lineCount                    compiles the source code given in the next 'lineCount' lines,
+ * - QUIT                                        closes the connection (or stops the standard input server).
+ * <p>
+ * Every compile request is answered with zero or more 'DIAG message' lines (errors reported by the compiler),
+ * followed by 'OK objPath micros' or 'FAILED micros', where 'micros' is the compile time in microseconds.
+ * A malformed request (or a compilation that fails with an exception or does not finish in time) is answered
+ * with 'ERROR message', and the server keeps serving the following requests.
+ * Every compilation uses a fresh 'CompilationContext', so no state is shared between requests.
+ */
+public class CompileServer {
+    private static final Logger log = Logger.getLogger(CompileServer.class);
+
+    private static final int DEFAULT_WARMUP_COUNT = 200;
+    private static final int DEFAULT_TIMEOUT_SECONDS = 30;
+
+    // Compilations run on their own daemon threads, so a compilation that does not finish cannot block its connection
+    private static final ExecutorService compilationPool = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "mj-compilation");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // A small program that exercises all compiler phases and runtime helpers during the warm-up
+    private static final String WARMUP_PROGRAM = "program Warmup\n"
+            + "    const int one = 1;\n"
+            + "    int array[], a;\n"
+            + "    char chars[];\n"
+            + "{\n"
+            + "    void main() int value; bool found; {\n"
+            + "        array = new int[3];\n"
+            + "        array[0] = one; array[1] = 2; array[one + 1] = array[0] * 3 - 1;\n"
+            + "        value = -array[2] + (5 * a / 2 - one) % 3;\n"
+            + "        value++; value--;\n"
+            + "        found = array.findAny(value);\n"
+            + "        value = array.findAll(2);\n"
+            + "        chars = new char[2]; chars[0] = 'a';\n"
+            + "        print(found); print(value, 3); print(chars[0]);\n"
+            + "    }\n"
+            + "}\n";
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        // Loading 'Compiler' configures log4j, so that its console appender exists before it is redirected
+        Class.forName(Compiler.class.getName());
+
+        // The standard output is reserved for the protocol; everything else printed by the compiler goes to standard error
+        PrintStream protocolOut = System.out;
+        System.setOut(System.err);
+
+        Appender console = Logger.getRootLogger().getAppender("console");
+        if (console instanceof ConsoleAppender) {
+            ((ConsoleAppender) console).setTarget(ConsoleAppender.SYSTEM_ERR);
+            ((ConsoleAppender) console).activateOptions();
+        }
+
+        int port = -1;
+        int warmupCount = DEFAULT_WARMUP_COUNT;
+        int timeoutSeconds = DEFAULT_TIMEOUT_SECONDS;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if ("--port".equals(args[i])) port = Integer.parseInt(args[i + 1]);
+            else if ("--warmup".equals(args[i])) warmupCount = Integer.parseInt(args[i + 1]);
+            else if ("--timeout".equals(args[i])) timeoutSeconds = Integer.parseInt(args[i + 1]);
+        }
+
+        warmUp(warmupCount);
+
+        if (port < 0) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(protocolOut, StandardCharsets.UTF_8));
+            serve(in, out, timeoutSeconds);
+        } else {
+            listen(port, timeoutSeconds);
+        }
+    }
+
+    private static void warmUp(int warmupCount) throws IOException {
+        File objFile = File.createTempFile("mj-warmup", ".obj");
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < warmupCount; i++) {
+                compile(new StringReader(WARMUP_PROGRAM), "<warmup>", objFile);
+            }
+            log.info("Compile server warmed up with " + warmupCount + " compilations in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } finally {
+            objFile.delete();
+        }
+    }
+
+    private static void listen(int port, int timeoutSeconds) throws IOException {
+        ExecutorService connectionPool = Executors.newCachedThreadPool();
+
+        try (ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            log.info("Compile server listening on " + serverSocket.getLocalSocketAddress());
+            while (true) {
+                Socket socket = serverSocket.accept();
+                connectionPool.execute(() -> {
+                    try (Socket connection = socket) {
+                        BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+                        PrintWriter out = new PrintWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8));
+                        serve(in, out, timeoutSeconds);
+                    } catch (IOException e) {
+                        log.error(e.getMessage(), e);
+                    }
+                });
+            }
+        } finally {
+            connectionPool.shutdown();
+        }
+    }
+
+    /**
+     * Serves requests from 'in' until 'QUIT' or the end of the input.
+     */
+    private static void serve(BufferedReader in, PrintWriter out, int timeoutSeconds) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] request = line.trim().split("\\s+");
+
+            switch (request[0]) {
+                case "":
+                    continue;
+                case "QUIT":
+                    out.flush();
+                    return;
+                case "COMPILE":
+                    if (request.length != 3) {
+                        out.println("ERROR Usage: COMPILE sourcePath objPath");
+                        break;
+                    }
+                    respond(out, new CompilationContext(serverOptions()), null, request[1], new File(request[2]), timeoutSeconds);
+                    break;
+                case "INLINE":
+                    if (request.length != 3) {
+                        out.println("ERROR Usage: INLINE objPath lineCount");
+                        break;
+                    }
+                    int lineCount;
+                    try {
+                        lineCount = Integer.parseInt(request[2]);
+                    } catch (NumberFormatException e) {
+                        lineCount = -1;
+                    }
+                    if (lineCount < 0) {
+                        out.println("ERROR Invalid line count: " + request[2]);
+                        break;
+                    }
+                    StringBuilder source = new StringBuilder();
+                    for (int i = 0; i < lineCount && (line = in.readLine()) != null; i++) {
+                        source.append(line).append('\n');
+                    }
+                    respond(out, new CompilationContext(serverOptions()), source.toString(), "<inline>", new File(request[1]), timeoutSeconds);
+                    break;
+                default:
+                    out.println("ERROR Unknown request: " + request[0]);
+            }
+            out.flush();
+        }
+        out.flush();
+    }
+
+    /**
+     * Compiles either the given inline source or the file 'sourceName', and writes the response.
+     * <p>
+     * A compilation that takes longer than 'timeoutSeconds' is answered with 'ERROR' and abandoned: the compiler does not
+     * check for interruption, so its thread keeps running, but the connection goes on with the next request.
+     */
+    private static void respond(PrintWriter out, CompilationContext context, String inlineSource, String sourceName, File objFile,
+                                int timeoutSeconds) {
+        long start = System.nanoTime();
+        Future<Boolean> compilation = compilationPool.submit(() -> inlineSource != null
+                ? Compiler.compile(context, new StringReader(inlineSource), sourceName, objFile)
+                : Compiler.compile(context, new File(sourceName), objFile));
+        boolean successful;
+        try {
+            successful = compilation.get(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            compilation.cancel(true);
+            log.error("Compilation of " + sourceName + " did not finish in " + timeoutSeconds + " s");
+            out.println("ERROR Compilation did not finish in " + timeoutSeconds + " s");
+            return;
+        } catch (ExecutionException e) {
+            log.error(e.getCause().getMessage(), e.getCause());
+            out.println("ERROR " + e.getCause());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            out.println("ERROR Interrupted");
+            return;
+        }
+        long micros = (System.nanoTime() - start) / 1_000;
+
+        for (String diagnostic : context.getDiagnostics()) {
+            out.println("DIAG " + diagnostic.replace('\n', ' ').trim());
+        }
+        out.println(successful ? "OK " + objFile.getAbsolutePath() + " " + micros : "FAILED " + micros);
+    }
+
+    private static boolean compile(StringReader source, String sourceName, File objFile) {
+        return Compiler.compile(new CompilationContext(serverOptions()), source, sourceName, objFile);
+    }
+
+    private static CompilerOptions serverOptions() {
+        // The symbol table dump is only useful for a single interactive compilation
+        return new CompilerOptions().setDumpSymbolTable(false);
+    }
+}
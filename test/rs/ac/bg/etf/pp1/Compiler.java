@@ -4,109 +4,376 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 import java_cup.runtime.Symbol;
 
+import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 import org.apache.log4j.xml.DOMConfigurator;
 
 import rs.ac.bg.etf.pp1.ast.Program;
+import rs.ac.bg.etf.pp1.util.AstSnapshot;
+import rs.ac.bg.etf.pp1.util.CodeBuffer;
 import rs.ac.bg.etf.pp1.util.CommonUtils;
+import rs.ac.bg.etf.pp1.util.CompilationCache;
+import rs.ac.bg.etf.pp1.util.CompilationMetrics;
+import rs.ac.bg.etf.pp1.util.CompilationMetrics.Phase;
 import rs.ac.bg.etf.pp1.util.Log4JUtils;
-import rs.etf.pp1.mj.runtime.Code;
-import rs.etf.pp1.symboltable.Tab;
+import rs.ac.bg.etf.pp1.util.MappedSourceReader;
+import rs.ac.bg.etf.pp1.util.PeepholeOptimizer;
 
 public class Compiler {
     private static final Logger log = Logger.getLogger(Compiler.class);
 
-    private static Reader reader = null;
-    private static File sourceFile = null;
-
-    private static MJParser parser = null;
-    private static Program prog = null;
-
     static {
         DOMConfigurator.configure(Log4JUtils.instance().findLoggerConfigFile());
         Log4JUtils.instance().prepareLogFile(Logger.getRootLogger());
     }
 
     public static void main(String[] args) {
+        if (args.length < 2) {
+            log.error("Specify command line arguments.");
+            return;
+        }
+
+        // Optional arguments: '-traceTokens' logs every token received by the parser, '-mappedInput' memory-maps the source file,
+        // '-keepBoundsChecks' generates all array checks, '-inlineArrayGuards' checks array accesses without calls,
+        // '-cache <dir>' reuses the results of earlier compilations of the same source from the cache directory,
+        // '-saveAst <file>' writes the analyzed syntax tree into a snapshot, '-fromAst' reads the first argument as a snapshot,
+        // '-streaming' analyzes and generates every method as soon as it is parsed,
+        // '-metrics' measures every phase and writes the metrics next to the object file,
+        // '-analysisThreads <n>' analyzes the method bodies on n threads
+        CompilerOptions options = new CompilerOptions();
+        boolean fromAst = false;
+        for (int i = 2; i < args.length; i++) {
+            if ("-traceTokens".equals(args[i])) options.setTraceTokens(true);
+            else if ("-mappedInput".equals(args[i])) options.setMappedInput(true);
+            else if ("-keepBoundsChecks".equals(args[i])) options.setEliminateBoundsChecks(false);
+            else if ("-inlineArrayGuards".equals(args[i])) options.setInlineArrayGuards(true);
+            else if ("-declarationOrderSlots".equals(args[i])) options.setAllocateLocalSlots(false);
+            else if ("-keepGlobalAccesses".equals(args[i])) options.setPromoteGlobals(false);
+            else if ("-cache".equals(args[i]) && i + 1 < args.length) options.setCacheDirectory(new File(args[++i]));
+            else if ("-saveAst".equals(args[i]) && i + 1 < args.length) options.setAstSnapshotFile(new File(args[++i]));
+            else if ("-fromAst".equals(args[i])) fromAst = true;
+            else if ("-streaming".equals(args[i])) options.setStreaming(true);
+            else if ("-metrics".equals(args[i])) options.setCollectMetrics(true).setWriteMetricsReport(true);
+            else if ("-analysisThreads".equals(args[i]) && i + 1 < args.length) options.setSemanticAnalysisThreads(Integer.parseInt(args[++i]));
+            else log.warn("Unknown option: " + args[i]);
+        }
+
+        if (fromAst) compileSnapshot(new CompilationContext(options), new File(args[0]), new File(args[1]));
+        else compile(new CompilationContext(options), new File(args[0]), new File(args[1]));
+        if (options.getCacheDirectory() != null) log.info(CompilationCache.forDirectory(options.getCacheDirectory()));
+
+        // Flushes asynchronous appenders (used by the quiet logging profile)
+        LogManager.shutdown();
+    }
+
+    /**
+     * Compiles a single source file into an object file.
+     * <p>
+     * All compiler state is kept in a fresh 'CompilationContext', so this method can be called
+     * from several threads at the same time.
+     *
+     * @return Returns true if the object file was successfully generated.
+     */
+    public static boolean compile(File sourceFile, File objFile) {
+        return compile(new CompilationContext(), sourceFile, objFile);
+    }
+
+    public static boolean compile(CompilationContext context, File sourceFile, File objFile) {
+        boolean success;
         try {
-            if (args.length < 2) {
-                log.error("Specify command line arguments.");
-                return;
+            // A cache hit would not write the syntax tree snapshot, so it is only used without one
+            if (context.getOptions().getCacheDirectory() != null && context.getOptions().getAstSnapshotFile() == null) {
+                success = compileCached(context, sourceFile, objFile);
+            } else {
+                success = compileFile(context, sourceFile, objFile);
+            }
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+            context.addDiagnostic(e.toString());
+            success = false;
+        }
+        writeMetricsReport(context, sourceFile.getAbsolutePath(), success, objFile);
+        return success;
+    }
+
+    private static boolean compileFile(CompilationContext context, File sourceFile, File objFile) throws IOException {
+        // The input file is closed at the end of the compilation
+        try (Reader reader = openSource(context, sourceFile)) {
+            return compile(context, reader, sourceFile.getAbsolutePath(), objFile);
+        }
+    }
+
+    /**
+     * Copies the object file from the compilation cache and replays the diagnostics of the cached compilation,
+     * or compiles the source file and stores the result in the cache.
+     * A source file that changes during the compilation is not stored.
+     */
+    private static boolean compileCached(CompilationContext context, File sourceFile, File objFile) throws IOException {
+        CompilerOptions options = context.getOptions();
+        CompilationCache cache = CompilationCache.forDirectory(options.getCacheDirectory());
+        byte[] source = Files.readAllBytes(sourceFile.toPath());
+        String key = cache.key(source, options);
+
+        CompilationCache.Entry entry = cache.get(key);
+        if (entry != null) {
+            log.info("Compilation cache hit: " + sourceFile.getAbsolutePath());
+            context.getMetrics().setCacheHit(true);
+            for (String diagnostic : entry.getDiagnostics()) {
+                log.error(diagnostic);
+                context.addDiagnostic(diagnostic);
             }
+            // The object file is replaced atomically, like a compiled one
+            if (entry.isSuccess()) CodeBuffer.writeAtomically(objFile, ByteBuffer.wrap(entry.getObjectCode()));
+            else if (objFile.exists()) objFile.delete();
+            return entry.isSuccess();
+        }
+
+        boolean success = compileFile(context, sourceFile, objFile);
+        if (Arrays.equals(source, Files.readAllBytes(sourceFile.toPath()))) {
+            cache.put(key, success, context.getDiagnostics(), success ? Files.readAllBytes(objFile.toPath()) : null,
+                    options.getCacheSizeLimit());
+        }
+        return success;
+    }
+
+    private static Reader openSource(CompilationContext context, File sourceFile) throws IOException {
+        // The mapped reader decodes the file directly into the lexer buffer
+        if (context.getOptions().isMappedInput()) return new MappedSourceReader(sourceFile);
+        return new BufferedReader(new FileReader(sourceFile));
+    }
 
+    /**
+     * Compiles the source code read from 'source' into an object file, using the given (fresh) context.
+     * The errors reported during the compilation are available through 'context.getDiagnostics()'.
+     *
+     * @return Returns true if the object file was successfully generated.
+     */
+    public static boolean compile(CompilationContext context, Reader source, String sourceName, File objFile) {
+        CompilationMetrics metrics = context.getMetrics();
+        try {
             // Print the path to the source file
-            String sourceFilePath = args[0];
-            String objFilePath = args[1];
+            log.info("Compiling source file: " + sourceName);
 
-            sourceFile = new File(sourceFilePath);
-            log.info("Compiling source file: " + sourceFile.getAbsolutePath());
+            // The syntax tree snapshot needs the complete tree, which the streaming compilation does not keep
+            if (context.getOptions().isStreaming() && context.getOptions().getAstSnapshotFile() == null) {
+                return streamingCompilation(context, source, objFile);
+            }
 
-            // Perform lexical and syntax analysis
-            lexicalAndSyntaxAnalysis();
+            // Perform lexical and syntax analysis (the nodes are counted outside of the measured phases)
+            MJParser parser = lexicalAndSyntaxAnalysis(context, source);
+            metrics.enterPhase(null);
+            if (metrics.isEnabled() && context.getProgram() != null) metrics.addNodes(CommonUtils.countNodes(context.getProgram()));
 
             // Initialize symbol table
-            CommonUtils.initSymbolTable();
+            CommonUtils.initSymbolTable(context);
 
             // Perform semantic analysis and code generation
-            semanticAnalysisAndCodeGeneration(objFilePath);
+            return semanticAnalysisAndCodeGeneration(context, parser, objFile);
         } catch (Exception e) {
             log.error(e.getMessage(), e);
-        } finally { // Close the opened input file
-            if (reader != null) try {
-                reader.close();
-            } catch (IOException e1) {
-                log.error(e1.getMessage(), e1);
-            }
+            context.addDiagnostic(e.toString());
+            return false;
+        } finally {
+            metrics.enterPhase(null);
+        }
+    }
+
+    /**
+     * Generates the object file from a syntax tree snapshot (see 'AstSnapshot'), without lexical, syntax and
+     * semantic analysis.
+     *
+     * @return Returns true if the object file was successfully generated.
+     */
+    public static boolean compileSnapshot(CompilationContext context, File snapshotFile, File objFile) {
+        boolean success;
+        try (InputStream in = Files.newInputStream(snapshotFile.toPath())) {
+            log.info("Compiling syntax tree snapshot: " + snapshotFile.getAbsolutePath());
+            AstSnapshot snapshot = AstSnapshot.read(in);
+            context.setProgram(snapshot.getProgram());
+            context.getLocalVarCounts().putAll(snapshot.getLocalVarCounts());
+            success = codeGeneration(context, snapshot.getNumberOfVariables(), objFile);
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            context.addDiagnostic(e.toString());
+            success = false;
+        } finally {
+            context.getMetrics().enterPhase(null);
+        }
+        writeMetricsReport(context, snapshotFile.getAbsolutePath(), success, objFile);
+        return success;
+    }
+
+    /**
+     * Writes the metrics of the compilation next to the object file, if requested in the options (see 'CompilationMetrics').
+     */
+    private static void writeMetricsReport(CompilationContext context, String sourceName, boolean success, File objFile) {
+        if (context.getOptions().isCollectMetrics()) log.info(context.getMetrics());
+        if (!context.getOptions().isWriteMetricsReport()) return;
+
+        String name = objFile.getName();
+        if (name.endsWith(".obj")) name = name.substring(0, name.length() - ".obj".length());
+        File reportFile = new File(objFile.getAbsoluteFile().getParentFile(), name + ".metrics.json");
+        try {
+            Files.write(reportFile.toPath(), context.getMetrics().toJson(sourceName, success).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            log.error("The metrics report could not be written: " + reportFile.getAbsolutePath(), e);
         }
     }
 
-    private static void lexicalAndSyntaxAnalysis() throws Exception {
-        // Lexical and syntax analysis
-        reader = new BufferedReader(new FileReader(sourceFile));
-        Yylex lexer = new Yylex(reader);
+    private static MJParser lexicalAndSyntaxAnalysis(CompilationContext context, Reader source) throws Exception {
+        MJParser parser = new MJParser(createLexer(context, source));
+        parse(context, parser);
+        return parser;
+    }
+
+    private static Yylex createLexer(CompilationContext context, Reader source) {
+        // Lexical and syntax analysis (lexer and parser report their errors into the context)
+        Yylex lexer = new Yylex(source);
+        lexer.diagnostics = context.getDiagnostics();
+        lexer.names = context.getNameTable();
+        lexer.keepTokenText = context.getOptions().isTraceTokens();
+        return lexer;
+    }
+
+    private static void parse(CompilationContext context, MJParser parser) throws Exception {
+        parser.diagnostics = context.getDiagnostics();
+        parser.traceTokens = context.getOptions().isTraceTokens();
+        parser.metrics = context.getMetrics();
+        context.getMetrics().enterPhase(Phase.PARSING);
 
-        parser = new MJParser(lexer);
         Symbol s = parser.parse();
-        prog = (Program) (s.value);
+        context.setProgram((Program) (s.value));
+    }
+
+    /**
+     * Parses the program and analyzes and generates every method as soon as it is reduced (see 'StreamingParser'),
+     * so the complete syntax tree is never built.
+     */
+    private static boolean streamingCompilation(CompilationContext context, Reader source, File objFile) throws Exception {
+        CommonUtils.initSymbolTable(context);
+        SemanticAnalyzer semanticAnalyzer = new SemanticAnalyzer(context);
+        CodeGenerator cg = new CodeGenerator(context);
+
+        log.info("\n\nSemantic analysis and code generation of every parsed method:");
+        StreamingParser parser = new StreamingParser(createLexer(context, source), semanticAnalyzer, cg);
+        parse(context, parser);
+        context.getMetrics().enterPhase(null);
+
+        // Print the symbol table
+        if (context.getOptions().isDumpSymbolTable()) {
+            log.info("===================================");
+            context.getSymbolTable().dump();
+        }
+
+        if (!parser.errorDetected && semanticAnalyzer.semanticAnalysisPassed()) {
+            log.info("Parsing has been successfully completed!");
+            return writeObjectFile(context, cg, semanticAnalyzer.getNumberOfVariables(), objFile);
+        } else {
+            log.error("Semantic analysis and code generation were NOT successfully completed.");
+            return false;
+        }
     }
 
-    private static void semanticAnalysisAndCodeGeneration(String objFilePath) throws Exception {
+    private static boolean semanticAnalysisAndCodeGeneration(CompilationContext context, MJParser parser, File objFile) throws Exception {
+        Program prog = context.getProgram();
+
         // Perform semantic analysis
-        SemanticAnalyzer semanticAnalyzer = new SemanticAnalyzer();
+        SemanticAnalyzer semanticAnalyzer = new SemanticAnalyzer(context);
         log.info("\n\nSemantic analysis:");
-        prog.traverseBottomUp(semanticAnalyzer);
+        context.getMetrics().enterPhase(Phase.SEMANTIC_ANALYSIS);
+        int threads = context.getOptions().getSemanticAnalysisThreads();
+        if (threads > 1) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                semanticAnalyzer.analyzeInParallel(prog, pool);
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            prog.traverseBottomUp(semanticAnalyzer);
+        }
+        context.getMetrics().enterPhase(null);
 
         // Print the symbol table
-        log.info("===================================");
-        Tab.dump();
+        if (context.getOptions().isDumpSymbolTable()) {
+            log.info("===================================");
+            context.getSymbolTable().dump();
+        }
 
         // Code generation
         if (!parser.errorDetected && semanticAnalyzer.semanticAnalysisPassed()) {
             // Code is syntactically and semantically correct
             log.info("Parsing has been successfully completed!");
 
-            // Open the object file
-            File objFile = new File(objFilePath);
-            if (objFile.exists()) objFile.delete();
-
-            // Traverse the tree and generate code into a buffer
-            CodeGenerator cg = new CodeGenerator();
-            prog.traverseBottomUp(cg);
-
-            // Set values for 'mainPC' and 'dataSize'
-            Code.mainPc = cg.getMainPC();
-            Code.dataSize = semanticAnalyzer.getNumberOfVariables();
+            // Save the analyzed syntax tree, so that code generation can be repeated without the analysis
+            File snapshotFile = context.getOptions().getAstSnapshotFile();
+            if (snapshotFile != null) {
+                AstSnapshot.write(prog, semanticAnalyzer.getNumberOfVariables(), context.getLocalVarCounts(), Files.newOutputStream(snapshotFile.toPath()));
+                log.info("Syntax tree snapshot written: " + snapshotFile.getAbsolutePath());
+            }
 
-            // Write from buffer to object file
-            Code.write(Files.newOutputStream(objFile.toPath()));
-            log.info("Code generation successfully completed!");
+            return codeGeneration(context, semanticAnalyzer.getNumberOfVariables(), objFile);
         } else {
             log.error("Semantic analysis and code generation were NOT successfully completed.");
+            return false;
+        }
+    }
+
+    private static boolean codeGeneration(CompilationContext context, int numberOfVariables, File objFile) throws IOException {
+        Program prog = context.getProgram();
+
+        // Traverse the tree and generate code into a buffer
+        CodeGenerator cg = new CodeGenerator(context);
+        context.getMetrics().enterPhase(Phase.CODE_GENERATION);
+        prog.traverseBottomUp(cg);
+        return writeObjectFile(context, cg, numberOfVariables, objFile);
+    }
+
+    private static boolean writeObjectFile(CompilationContext context, CodeGenerator cg, int numberOfVariables, File objFile) throws IOException {
+        context.getMetrics().enterPhase(Phase.OBJECT_FILE);
+
+        if (context.getOptions().isEliminateBoundsChecks()) {
+            log.info(cg.getBoundsCheckAnalyzer());
+        }
+        if (context.getOptions().isPromoteGlobals()) {
+            log.info(cg.getGlobalPromoter());
+        }
+        if (context.getOptions().isAllocateLocalSlots()) {
+            log.info(cg.getLocalSlotAllocator());
+        }
+
+        // Set values for 'mainPC' and 'dataSize'
+        CodeBuffer code = context.getCode();
+        code.mainPc = cg.getMainPC();
+        code.dataSize = numberOfVariables;
+
+        // Rewrite known instruction sequences into shorter ones
+        if (context.getOptions().isOptimizePeephole()) {
+            log.info(new PeepholeOptimizer(context).optimize());
         }
+
+        if (code.isErrorDetected()) {
+            if (objFile.exists()) objFile.delete();
+            context.addDiagnostic(code.getErrorMessage());
+            log.error("Code generation was NOT successfully completed.");
+            return false;
+        }
+
+        // Write from buffer to object file
+        code.write(objFile);
+        context.getMetrics().setCodeBytes(code.pc);
+        context.getMetrics().enterPhase(null);
+        log.info("Code generation successfully completed!");
+        return true;
     }
 }
@@ -0,0 +1,83 @@
+package rs.ac.bg.etf.pp1;
+
+import java.io.StringReader;
+
+import java_cup.runtime.Symbol;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import rs.ac.bg.etf.pp1.ast.*;
+import rs.ac.bg.etf.pp1.util.CommonUtils;
+
+/**
+ * Checks which 'x * 0' and '0 * x' products the constant folder replaces by 0: the ones whose other operand may trap
+ * (a division or a remainder by zero, an array access) must still be evaluated at runtime.
+ * <p>
+ * Exits with status 1 if a product is folded wrongly.
+ */
+public class ConstantFolderTest {
+    private static final Logger log = Logger.getLogger(ConstantFolderTest.class);
+
+    public static void main(String[] args) throws Exception {
+        Class.forName(Compiler.class.getName()); // Configures log4j
+        Logger.getLogger(SemanticAnalyzer.class).setLevel(Level.WARN);
+
+        int failures = 0;
+        failures += check("(a / 0) * 0", false);
+        failures += check("0 * (a % z)", false);
+        failures += check("(5 / 0) * 0", false);
+        failures += check("(a / z + 1) * 0", false);
+        failures += check("arr[a] * 0", false);
+        failures += check("(a / 2) * 0", true);
+        failures += check("(a + 1) * 0", true);
+        failures += check("0 * a", true);
+
+        if (failures > 0) {
+            log.error(failures + " products folded wrongly");
+            System.exit(1);
+        }
+        log.info("All products folded correctly");
+    }
+
+    /**
+     * Compiles 'b = <product>;' and checks whether the product has been folded into a constant.
+     *
+     * @return Returns 1 if the result differs from the expected one.
+     */
+    private static int check(String product, boolean folded) throws Exception {
+        String program = "program P int a, b, z; int arr[]; { void main() { a = 7; z = 0; arr = new int[8]; b = " + product + "; print(b); } }";
+
+        CompilationContext context = new CompilationContext(new CompilerOptions().setDumpSymbolTable(false));
+        CommonUtils.initSymbolTable(context);
+        MJParser parser = new MJParser(new Yylex(new StringReader(program)));
+        Symbol s = parser.parse();
+        Program prog = (Program) s.value;
+        SemanticAnalyzer semanticAnalyzer = new SemanticAnalyzer(context);
+        prog.traverseBottomUp(semanticAnalyzer);
+        if (parser.errorDetected || !semanticAnalyzer.semanticAnalysisPassed()) {
+            log.error(product + ": the test program has errors");
+            return 1;
+        }
+
+        ConstantFolder folder = new ConstantFolder();
+        folder.fold(prog);
+
+        // The product is the only multiplication by a constant zero in the program
+        Assignment[] assignment = new Assignment[1];
+        prog.traverseBottomUp(new VisitorAdaptor() {
+            @Override
+            public void visit(Assignment node) {
+                if (node.getDesignator().getName().equals("b")) assignment[0] = node;
+            }
+        });
+        boolean actual = folder.isConstant(((AssignmentValueExpr) assignment[0].getAssignmentValue()).getExpr());
+
+        if (actual != folded) {
+            log.error(product + ": " + (actual ? "folded into 0" : "not folded"));
+            return 1;
+        }
+        log.info(product + ": " + (actual ? "folded into 0" : "not folded"));
+        return 0;
+    }
+}
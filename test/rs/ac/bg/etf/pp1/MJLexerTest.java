@@ -35,6 +35,7 @@ public class MJLexerTest {
             /* Creates a lexer */
             br = new BufferedReader(new FileReader(sourceCode));
             Yylex lexer = new Yylex(br);
+            lexer.keepTokenText = true;
             Symbol currToken = null;
 
             /* Lexer takes tokens until EOF token and displays them in the log */
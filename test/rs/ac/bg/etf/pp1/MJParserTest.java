@@ -13,7 +13,12 @@ import org.apache.log4j.xml.DOMConfigurator;
 
 import rs.ac.bg.etf.pp1.ast.Program;
 import rs.ac.bg.etf.pp1.util.Log4JUtils;
+import rs.ac.bg.etf.pp1.util.MappedSourceReader;
 
+/**
+ * Parses 'test/test301.mj' and prints its tokens and syntax tree.
+ * The '-mappedInput' argument reads the file through 'MappedSourceReader' instead of a 'BufferedReader'.
+ */
 public class MJParserTest {
     /* Configures log4j */
     static {
@@ -33,11 +38,15 @@ public class MJParserTest {
             /* Prints the path to the source file */
             log.info("Translating file with source code: " + sourceCode.getAbsolutePath());
 
-            /* Creates a lexer */
-            br = new BufferedReader(new FileReader(sourceCode));
+            /* Creates a lexer (reading the memory-mapped input file with '-mappedInput') */
+            boolean mappedInput = args.length > 0 && "-mappedInput".equals(args[0]);
+            br = mappedInput ? new MappedSourceReader(sourceCode) : new BufferedReader(new FileReader(sourceCode));
             Yylex lexer = new Yylex(br);
+            lexer.keepTokenText = true;
 
+            /* Creates a parser that prints every token */
             MJParser parser = new MJParser(lexer);
+            parser.traceTokens = true;
             Symbol s = parser.parse();
             Program prog = (Program) (s.value);
 
@@ -0,0 +1,269 @@
+package rs.ac.bg.etf.pp1;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import rs.ac.bg.etf.pp1.util.PeepholeOptimizer;
+import rs.etf.pp1.mj.runtime.Code;
+
+/**
+ * Compiles the programs in test/regression with the default optimizations, with inline array guards and with all
+ * optimizations turned off, runs each object file on the MicroJava VM and compares the output (including the trap that
+ * ends the program) with the expected '.out' file next to the program. A program reads its '.in' file, if there is one.
+ * <p>
+ * Also checks that every optimization shrinks the code of the program written for it compared to its off switch, that
+ * the shared local slots shrink the frame of 'main', and that the promoted globals are only transferred on the entry
+ * and the exit of 'main'.
+ * <p>
+ * Exits with status 1 if a check fails.
+ */
+public class OptimizationRegressionTest {
+    private static final Logger log = Logger.getLogger(OptimizationRegressionTest.class);
+
+    private static final File PROGRAM_DIRECTORY = new File("test/regression");
+
+    /** The trap addresses differ between the variants, so they are not compared. */
+    private static final Pattern EXCEPTION_ADDRESS = Pattern.compile("^-- exception at address \\d+: ");
+
+    private static final Map<String, UnaryOperator<CompilerOptions>> VARIANTS = new LinkedHashMap<>();
+
+    static {
+        VARIANTS.put("optimized", options -> options);
+        VARIANTS.put("inline guards", options -> options.setInlineArrayGuards(true));
+        VARIANTS.put("unoptimized", options -> options.setFoldConstants(false).setOptimizePeephole(false)
+                .setEliminateBoundsChecks(false).setAllocateLocalSlots(false).setPromoteGlobals(false));
+    }
+
+    private static File outputDirectory;
+
+    public static void main(String[] args) throws Exception {
+        Class.forName(Compiler.class.getName()); // Configures log4j
+        Logger.getLogger("rs.ac.bg.etf.pp1").setLevel(Level.WARN);
+        log.setLevel(Level.INFO);
+
+        outputDirectory = Files.createTempDirectory("mj-regression").toFile();
+
+        int failures = 0;
+        File[] programs = PROGRAM_DIRECTORY.listFiles((directory, name) -> name.endsWith(".mj"));
+        Arrays.sort(programs);
+        for (File program : programs) {
+            for (Map.Entry<String, UnaryOperator<CompilerOptions>> variant : VARIANTS.entrySet()) {
+                failures += checkOutput(program, variant.getKey(), variant.getValue());
+            }
+        }
+
+        failures += checkSmaller("peephole optimizer", "peephole", options -> options.setOptimizePeephole(false));
+        failures += checkSmaller("bounds check elimination", "bounds", options -> options.setEliminateBoundsChecks(false));
+        failures += checkSmaller("local slot allocation", "slots", options -> options.setAllocateLocalSlots(false));
+        failures += checkSmaller("global promotion", "globals", options -> options.setPromoteGlobals(false));
+        failures += checkFrameSize();
+        failures += checkGlobalTransfers();
+
+        for (File file : outputDirectory.listFiles()) file.delete();
+        outputDirectory.delete();
+
+        if (failures > 0) {
+            log.error(failures + " checks failed");
+            System.exit(1);
+        }
+        log.info("All checks passed");
+    }
+
+    /* Program output */
+
+    /**
+     * @return Returns 1 if the program does not compile or its output differs from the expected one.
+     */
+    private static int checkOutput(File program, String variant, UnaryOperator<CompilerOptions> options) throws Exception {
+        String name = program.getName().substring(0, program.getName().length() - ".mj".length());
+        File objFile = compile(program, name + "-" + variant.replace(' ', '-'), options);
+        if (objFile == null) {
+            log.error(name + " (" + variant + "): does not compile");
+            return 1;
+        }
+
+        String expected = normalize(new String(Files.readAllBytes(new File(PROGRAM_DIRECTORY, name + ".out").toPath()), StandardCharsets.UTF_8));
+        String actual = normalize(run(objFile, new File(PROGRAM_DIRECTORY, name + ".in")));
+        if (!actual.equals(expected)) {
+            log.error(name + " (" + variant + "): expected\n" + expected + "\nbut the output is\n" + actual);
+            return 1;
+        }
+        log.info(name + " (" + variant + "): output matches");
+        return 0;
+    }
+
+    /**
+     * Runs the object file on the VM in a separate process, because the VM keeps its state in static fields.
+     */
+    private static String run(File objFile, File inputFile) throws IOException, InterruptedException {
+        ProcessBuilder builder = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"), "rs.etf.pp1.mj.runtime.Run", objFile.getPath());
+        builder.redirectErrorStream(true);
+        if (inputFile.exists()) builder.redirectInput(inputFile);
+
+        Process process = builder.start();
+        if (!inputFile.exists()) process.getOutputStream().close();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream in = process.getInputStream()) {
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) > 0; ) output.write(buffer, 0, n);
+        }
+        process.waitFor();
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Drops the trap addresses, the running time, trailing spaces and trailing empty lines.
+     */
+    private static String normalize(String output) {
+        StringBuilder result = new StringBuilder();
+        for (String line : output.split("\r?\n")) {
+            if (line.startsWith("Completion took")) continue;
+            result.append(EXCEPTION_ADDRESS.matcher(line).replaceFirst("-- exception: ").replaceAll("\\s+$", "")).append('\n');
+        }
+        return result.toString().replaceAll("\n+$", "\n");
+    }
+
+    /* Code size */
+
+    /**
+     * @return Returns 1 if the code of the program is not smaller with the optimization than with its off switch.
+     */
+    private static int checkSmaller(String optimization, String name, UnaryOperator<CompilerOptions> offSwitch) throws Exception {
+        byte[] on = compile(name, options -> options);
+        byte[] off = compile(name, offSwitch);
+        if (on == null || off == null) {
+            log.error(optimization + ": " + name + " does not compile");
+            return 1;
+        }
+
+        int codeSizeOn = readInt(on, 2);
+        int codeSizeOff = readInt(off, 2);
+        if (codeSizeOn >= codeSizeOff) {
+            log.error(optimization + ": " + name + " has " + codeSizeOn + " bytes of code, " + codeSizeOff + " without it");
+            return 1;
+        }
+        log.info(optimization + ": " + name + " has " + codeSizeOn + " bytes of code, " + codeSizeOff + " without it");
+        return 0;
+    }
+
+    /**
+     * @return Returns 1 if the shared slots do not make the frame of 'main' smaller than the declaration order.
+     */
+    private static int checkFrameSize() throws Exception {
+        byte[] shared = compile("slots", options -> options);
+        byte[] declarationOrder = compile("slots", options -> options.setAllocateLocalSlots(false));
+        if (shared == null || declarationOrder == null) {
+            log.error("local slot allocation: slots does not compile");
+            return 1;
+        }
+
+        // 'enter' is the first instruction of 'main', its second operand is the number of slots
+        int sharedSlots = shared[14 + readInt(shared, 10) + 2] & 0xFF;
+        int declarationOrderSlots = declarationOrder[14 + readInt(declarationOrder, 10) + 2] & 0xFF;
+        if (sharedSlots >= declarationOrderSlots) {
+            log.error("local slot allocation: main of slots has " + sharedSlots + " slots, " + declarationOrderSlots + " in declaration order");
+            return 1;
+        }
+        log.info("local slot allocation: main of slots has " + sharedSlots + " slots, " + declarationOrderSlots + " in declaration order");
+        return 0;
+    }
+
+    /**
+     * Checks where 'main' of the globals program accesses its globals: 'g' is read first, so it is loaded on the entry
+     * and stored back on the exit, 'h' is written first, so it is only stored back, and 'r' is only read, so it is
+     * only loaded. The body of 'main' must not access any of them.
+     *
+     * @return Returns the number of accesses that differ from the expected ones.
+     */
+    private static int checkGlobalTransfers() throws Exception {
+        byte[] obj = compile("globals", options -> options);
+        if (obj == null) {
+            log.error("global promotion: globals does not compile");
+            return 1;
+        }
+
+        // Decodes 'main' up to its 'exit'
+        List<int[]> instructions = new ArrayList<>(); // Opcode and operand
+        for (int address = 14 + readInt(obj, 10); ; ) {
+            int opcode = obj[address] & 0xFF;
+            instructions.add(new int[] { opcode, opcode == Code.getstatic || opcode == Code.putstatic ? readShort(obj, address + 1) : -1 });
+            if (opcode == Code.exit) break;
+            address += PeepholeOptimizer.instructionLength(opcode);
+        }
+
+        // The entry follows 'enter' while only loading globals into locals, the exit precedes 'exit' while only storing them back
+        int entryEnd = 1;
+        while (instructions.get(entryEnd)[0] == Code.getstatic || isStore(instructions.get(entryEnd)[0])) entryEnd++;
+        int exitStart = instructions.size() - 1;
+        while (instructions.get(exitStart - 1)[0] == Code.putstatic || isLoad(instructions.get(exitStart - 1)[0])) exitStart--;
+
+        // The globals g, h and r have the addresses 0, 1 and 2
+        String[] names = { "g", "h", "r" };
+        int[][] expected = { { 1, 0, 1 }, { 0, 0, 1 }, { 1, 0, 0 } }; // Accesses on the entry, in the body and on the exit
+        int failures = 0;
+        for (int global = 0; global < names.length; global++) {
+            int[] actual = new int[3];
+            for (int i = 0; i < instructions.size(); i++) {
+                int[] instruction = instructions.get(i);
+                if (instruction[1] != global) continue;
+                actual[i < entryEnd ? 0 : i >= exitStart ? 2 : 1]++;
+            }
+            String accesses = names[global] + " is accessed " + actual[0] + " times on the entry, " + actual[1] + " times in the body and " + actual[2] + " times on the exit";
+            if (!Arrays.equals(actual, expected[global])) {
+                log.error("global promotion: " + accesses);
+                failures++;
+            } else {
+                log.info("global promotion: " + accesses);
+            }
+        }
+        return failures;
+    }
+
+    private static boolean isLoad(int opcode) {
+        return opcode == Code.load || (opcode >= Code.load_n && opcode < Code.load_n + 4);
+    }
+
+    private static boolean isStore(int opcode) {
+        return opcode == Code.store || (opcode >= Code.store_n && opcode < Code.store_n + 4);
+    }
+
+    /* Compilation */
+
+    private static byte[] compile(String name, UnaryOperator<CompilerOptions> options) throws IOException {
+        File objFile = compile(new File(PROGRAM_DIRECTORY, name + ".mj"), name, options);
+        return objFile == null ? null : Files.readAllBytes(objFile.toPath());
+    }
+
+    /**
+     * @return Returns the object file, or null if the program has errors.
+     */
+    private static File compile(File program, String objName, UnaryOperator<CompilerOptions> options) {
+        File objFile = new File(outputDirectory, objName + ".obj");
+        CompilationContext context = new CompilationContext(options.apply(new CompilerOptions().setDumpSymbolTable(false)));
+        return Compiler.compile(context, program, objFile) ? objFile : null;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8 | bytes[offset + 3] & 0xFF;
+    }
+
+    private static int readShort(byte[] bytes, int offset) {
+        return (short) ((bytes[offset] & 0xFF) << 8 | bytes[offset + 1] & 0xFF);
+    }
+}
@@ -0,0 +1,126 @@
+package rs.ac.bg.etf.pp1;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.log4j.Logger;
+
+import rs.ac.bg.etf.pp1.util.CompilationCache;
+
+/**
+ * Compiles all '.mj' files from a directory (recursively) on a fork-join pool.
+ * <p>
+ * Every file is compiled with its own 'CompilationContext', so the pool scales with the number of cores.
+ * Arguments: sourceDir [outputDir] [threadCount] [cacheDir]
+ * - the object files are written into 'outputDir' under the paths of the source files relative to 'sourceDir'
+ * (default: next to the source files), so files with the same name in different directories do not overwrite each other,
+ * - 'threadCount' defaults to the number of available processors,
+ * - unchanged files are copied from the compilation cache in 'cacheDir' (default: no cache).
+ */
+public class ParallelCompiler {
+    private static final Logger log = Logger.getLogger(ParallelCompiler.class);
+
+    // Below this number of files a task compiles them itself instead of splitting the work further
+    private static final int SEQUENTIAL_THRESHOLD = 4;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            log.error("Specify command line arguments: sourceDir [outputDir] [threadCount] [cacheDir]");
+            return;
+        }
+
+        Path sourceDir = new File(args[0]).toPath();
+        Path outputDir = args.length > 1 ? new File(args[1]).toPath() : null;
+        int threadCount = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        File cacheDir = args.length > 3 ? new File(args[3]) : null;
+
+        List<Path> sourceFiles;
+        try (Stream<Path> paths = Files.walk(sourceDir)) {
+            sourceFiles = paths.filter(path -> path.toString().endsWith(".mj")).sorted().collect(Collectors.toList());
+        }
+        List<File> objFiles = new ArrayList<>();
+        for (Path sourceFile : sourceFiles) {
+            File objFile = getObjFile(sourceDir, outputDir, sourceFile);
+            Files.createDirectories(objFile.getParentFile().toPath());
+            objFiles.add(objFile);
+        }
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threadCount);
+        int compiledCount;
+        try {
+            compiledCount = pool.invoke(new CompileTask(sourceFiles, objFiles, cacheDir, 0, sourceFiles.size()));
+        } finally {
+            pool.shutdown();
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        log.info("Compiled " + compiledCount + "/" + sourceFiles.size() + " files on " + threadCount
+                + " threads in " + elapsedMillis + " ms");
+        if (cacheDir != null) log.info(CompilationCache.forDirectory(cacheDir));
+        if (compiledCount != sourceFiles.size()) {
+            log.error((sourceFiles.size() - compiledCount) + " files were NOT successfully compiled.");
+        }
+    }
+
+    /**
+     * Returns the object file of a source file: next to it, or in the output directory under its path relative to the source directory.
+     */
+    private static File getObjFile(Path sourceDir, Path outputDir, Path sourceFile) {
+        String fileName = sourceFile.getFileName().toString();
+        String objFileName = fileName.substring(0, fileName.length() - ".mj".length()) + ".obj";
+        if (outputDir == null) return sourceFile.toAbsolutePath().resolveSibling(objFileName).toFile();
+
+        // The source directory may be the source file itself
+        Path relativeDir = sourceFile.equals(sourceDir) ? null : sourceDir.relativize(sourceFile).getParent();
+        Path directory = relativeDir != null ? outputDir.resolve(relativeDir) : outputDir;
+        return directory.resolve(objFileName).toFile();
+    }
+
+    /**
+     * Compiles the files in [from, to) and returns how many of them were compiled successfully.
+     */
+    private static class CompileTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> sourceFiles;
+        private final List<File> objFiles;
+        private final File cacheDir;
+        private final int from, to;
+
+        CompileTask(List<Path> sourceFiles, List<File> objFiles, File cacheDir, int from, int to) {
+            this.sourceFiles = sourceFiles;
+            this.objFiles = objFiles;
+            this.cacheDir = cacheDir;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                int compiledCount = 0;
+                for (int i = from; i < to; i++) {
+                    Path sourceFile = sourceFiles.get(i);
+                    CompilationContext context = new CompilationContext(new CompilerOptions().setCacheDirectory(cacheDir));
+                    if (Compiler.compile(context, sourceFile.toFile(), objFiles.get(i))) compiledCount++;
+                }
+                return compiledCount;
+            }
+
+            int middle = (from + to) >>> 1;
+            CompileTask left = new CompileTask(sourceFiles, objFiles, cacheDir, from, middle);
+            CompileTask right = new CompileTask(sourceFiles, objFiles, cacheDir, middle, to);
+            left.fork();
+            return right.compute() + left.join();
+        }
+    }
+}